@@ -21,6 +21,7 @@ import java.util.Set;
 
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.page.viewer.dla.PageLayoutIndex;
 import org.primaresearch.page.viewer.image.Image;
 
 /**
@@ -37,20 +38,81 @@ public class Document {
 	/** Page content (layout, text, ...) */
 	private Page page;
 	
+	/** Spatial index for the page content (built on demand) */
+	private PageLayoutIndex layoutIndex;
+	
 	private Set<DocumentListener> listeners = new HashSet<DocumentListener>();
 	
 	/**
 	 * Sets a new document page image and notifies all document listeners.
 	 */
 	public void setImage(Image image) {
-		if (this.image != null)
-			this.image.dispose();
+		Image oldImage = this.image;
 		this.image = image;
 		
 		//Notify listener
 		for (Iterator<DocumentListener> it = listeners.iterator(); it.hasNext(); ) {
 			it.next().imageChanged();
 		}
+		
+		//The views share the image (no copies), so it is released after they have switched
+		if (oldImage != null)
+			oldImage.disposeLater();
+	}
+
+	/**
+	 * Replaces the page image by a higher resolution version of the same image 
+	 * (e.g. after a preview) and notifies all document listeners.
+	 */
+	public void refineImage(Image image) {
+		Image oldImage = this.image;
+		this.image = image;
+		
+		for (Iterator<DocumentListener> it = listeners.iterator(); it.hasNext(); ) {
+			it.next().imageRefined();
+		}
+		
+		if (oldImage != null)
+			oldImage.disposeLater();
+	}
+
+	/**
+	 * Notifies all document listeners that reduced resolution versions of the page image are available.
+	 */
+	public void imageLevelsChanged() {
+		for (Iterator<DocumentListener> it = listeners.iterator(); it.hasNext(); ) {
+			it.next().imageLevelsChanged();
+		}
+	}
+
+	/**
+	 * Notifies all document listeners that the page content has changed (e.g. after post-processing).
+	 */
+	public void contentChanged() {
+		//Rebuild index
+		synchronized (this) {
+			layoutIndex = null;
+		}
+		getLayoutIndex();
+		
+		notifyContentChanged();
+	}
+
+	/**
+	 * Sets a layout index that has been built for the changed page content (e.g. in a worker thread)
+	 * and notifies all document listeners that the page content has changed.
+	 */
+	public void contentChanged(PageLayoutIndex index) {
+		synchronized (this) {
+			layoutIndex = index;
+		}
+		notifyContentChanged();
+	}
+	
+	private void notifyContentChanged() {
+		for (Iterator<DocumentListener> it = listeners.iterator(); it.hasNext(); ) {
+			it.next().contentChanged();
+		}
 	}
 
 	/**
@@ -68,6 +130,15 @@ public class Document {
 			this.image.dispose();
 	}
 	
+	/**
+	 * Disposes this document on the UI thread, after the views have switched to another document
+	 * (see {@link Image#disposeLater()})
+	 */
+	public void disposeLater() {
+		if (this.image != null)
+			this.image.disposeLater();
+	}
+	
 	/**
 	 * Adds the given document listener
 	 */
@@ -85,8 +156,9 @@ public class Document {
 	/**
 	 * Sets the page content
 	 */
-	public void setPage(Page page) {
+	public synchronized void setPage(Page page) {
 		this.page = page;
+		layoutIndex = null;
 	}
 
 	/**
@@ -98,9 +170,20 @@ public class Document {
 
 	/**
 	 * Returns the page layout (part of page)
+	 * @return Layout or <code>null</code> if the page content has not been loaded (yet)
 	 */
 	public PageLayout getPageLayout() {
-		return page.getLayout();
+		return page != null ? page.getLayout() : null;
+	}
+
+	/**
+	 * Returns the spatial index for the page content (the index is created if necessary)
+	 * @return Index object or <code>null</code> if there is no page content
+	 */
+	public synchronized PageLayoutIndex getLayoutIndex() {
+		if (layoutIndex == null && page != null && page.getLayout() != null)
+			layoutIndex = new PageLayoutIndex(page.getLayout());
+		return layoutIndex;
 	}
 
 	/**
@@ -114,6 +197,21 @@ public class Document {
 		 * Notification that the document page image has been changed
 		 */
 		public void imageChanged();
+		
+		/**
+		 * Notification that the page image has been replaced by a higher resolution version of the same image
+		 */
+		public void imageRefined();
+		
+		/**
+		 * Notification that reduced resolution versions of the page image have been calculated
+		 */
+		public void imageLevelsChanged();
+		
+		/**
+		 * Notification that the page content (layout, coordinates, ...) has been changed
+		 */
+		public void contentChanged();
 	}
 }
 
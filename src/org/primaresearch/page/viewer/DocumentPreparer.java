@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.page.viewer.dla.PageLayoutIndex;
+import org.primaresearch.page.viewer.dla.XmlDocumentLayoutLoader;
+import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.ui.views.DocumentView;
+
+/**
+ * Task that prepares a loaded document for display: post-processes the page content
+ * (requires the image size), builds the layout index and lets the views compile their render data.<br>
+ * All of this runs in a worker thread. The page is not part of the document yet while it is being
+ * post-processed; it is set for the document together with the index on the UI thread afterwards
+ * via {@link #handOff()}, which is cheap.
+ * 
+ * @author agent
+ *
+ */
+public class DocumentPreparer extends Task {
+
+	private Document document;
+	private Page page;
+	private XmlDocumentLayoutLoader xmlLoader;
+	private List<DocumentView> views;
+	private PageLayoutIndex layoutIndex = null;
+	private int displayMode = DocumentView.DISPLAYMODE_IMAGE;
+	private List<Runnable> viewHandOffs = new ArrayList<Runnable>();
+
+	/**
+	 * Constructor
+	 * @param document Document with page image
+	 * @param page Loaded page content (not yet post-processed; not to be accessed elsewhere until the hand-off)
+	 * @param xmlLoader Loader that read the page content (used for post-processing)
+	 * @param views Views to prepare render data for
+	 */
+	public DocumentPreparer(Document document, Page page, XmlDocumentLayoutLoader xmlLoader, List<DocumentView> views) {
+		this.document = document;
+		this.page = page;
+		this.xmlLoader = xmlLoader;
+		this.views = views;
+		setPriority(PRIORITY_HIGH);
+	}
+
+	@Override
+	protected boolean doRun() {
+		//Post-process
+		xmlLoader.postProcess(page, document.getImage().getWidth(), document.getImage().getHeight(), 0, 0);
+		checkCancelled();
+
+		//Index
+		PageLayout pageLayout = page.getLayout();
+		if (pageLayout == null)
+			return false;
+		layoutIndex = new PageLayoutIndex(pageLayout);
+		checkCancelled();
+
+		//Init display mode
+		displayMode = DocumentView.DISPLAYMODE_IMAGE;
+		// If there are regions - activate region mode
+		if (pageLayout.getRegionCount() > 0)
+			displayMode |= DocumentView.DISPLAYMODE_REGION;
+
+		//Render data
+		for (Iterator<DocumentView> it = views.iterator(); it.hasNext(); ) {
+			Runnable handOff = it.next().prepare(document, pageLayout, layoutIndex, displayMode);
+			if (handOff != null)
+				viewHandOffs.add(handOff);
+			checkCancelled();
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the post-processed page for the document and installs the prepared data (to be called from the UI thread)
+	 */
+	public void handOff() {
+		document.setPage(page);
+		document.contentChanged(layoutIndex);
+		for (Iterator<Runnable> it = viewHandOffs.iterator(); it.hasNext(); )
+			it.next().run();
+	}
+
+	/**
+	 * Returns the document that has been prepared
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * Returns the display mode to start with (image plus regions, if there are any)
+	 */
+	public int getDisplayMode() {
+		return displayMode;
+	}
+}
@@ -16,6 +16,7 @@
 package org.primaresearch.page.viewer;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyEvent;
@@ -26,13 +27,17 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Item;
 import org.eclipse.swt.widgets.MessageBox;
+import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.layout.PageLayout;
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
 import org.primaresearch.page.viewer.dla.XmlDocumentLayoutLoader;
 import org.primaresearch.page.viewer.extra.Task;
 import org.primaresearch.page.viewer.extra.TaskListener;
 import org.primaresearch.page.viewer.image.Image;
+import org.primaresearch.page.viewer.image.FullResolutionLoader;
 import org.primaresearch.page.viewer.image.ImageLoader;
+import org.primaresearch.page.viewer.image.ImageSource;
+import org.primaresearch.page.viewer.image.ImagePyramidBuilder;
 import org.primaresearch.page.viewer.ui.AboutDialog;
 import org.primaresearch.page.viewer.ui.PageDataDialog;
 import org.primaresearch.page.viewer.ui.views.DocumentImageView;
@@ -48,6 +53,10 @@ import org.primaresearch.page.viewer.ui.views.DocumentView;
 public class EventListener implements SelectionListener, TaskListener, KeyListener {
 	
 	private PageViewer pageViewer;
+	/** Document for which the image is being displayed (UI thread only) */
+	private Document imageDocument = null;
+	/** Document for which the layout overlays have been initialised (UI thread only) */
+	private Document initialisedDocument = null;
 
 	/**
 	 * Constructor
@@ -167,6 +176,11 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 	@Override
 	public void taskFinished(final Task task) {
 		try {
+			//Superseded by a newer document?
+			if (!pageViewer.isCurrent(task)) {
+				discardResult(task);
+				return;
+			}
 			if (task.isSuccessfull()) {
 				//Image Loader
 				if (task instanceof ImageLoader) {
@@ -176,6 +190,18 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 				else if (task instanceof XmlDocumentLayoutLoader) {
 					onXmlLoaderFinished((XmlDocumentLayoutLoader)task);
 				}
+				//Full resolution after preview
+				else if (task instanceof FullResolutionLoader) {
+					onFullResolutionLoaded((FullResolutionLoader)task);
+				}
+				//Image pyramid
+				else if (task instanceof ImagePyramidBuilder) {
+					onImagePyramidFinished((ImagePyramidBuilder)task);
+				}
+				//Post-processing and overlays
+				else if (task instanceof DocumentPreparer) {
+					onDocumentPrepared((DocumentPreparer)task);
+				}
 			}
 			// Task Failed
 			else
@@ -184,96 +210,289 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 				if (task instanceof XmlDocumentLayoutLoader) {
 					onXmlLoaderFailed((XmlDocumentLayoutLoader)task);
 				}
+				//Other tasks
+				else if (task.getException() != null) {
+					showError("Error", "An error occured ("+task.getClass().getSimpleName()+"):\n" + task.getException());
+				}
 			}
 		} catch (Exception exc) {
-			exc.printStackTrace(); //TODO
+			showError("Error", "An error occured:\n" + exc);
 		}
-		
-		//Process next task
-		pageViewer.processNextTask();
 	}
 	
 	/**
-	 * Called when an image has been loaded 
+	 * Releases the result of a task that was cancelled or started for a previous document
+	 */
+	private void discardResult(Task task) {
+		if (task instanceof ImageLoader) {
+			ImageSource remainingSource = ((ImageLoader)task).takeRemainingSource();
+			if (remainingSource != null)
+				remainingSource.close();
+			disposeLater(((ImageLoader)task).getImage());
+		}
+		else if (task instanceof FullResolutionLoader) {
+			((FullResolutionLoader)task).closeSource();
+			disposeLater(((FullResolutionLoader)task).getImage());
+		}
+	}
+	
+	/**
+	 * Disposes the given image on the UI thread
+	 * @param image Image or <code>null</code>
+	 */
+	private void disposeLater(final Image image) {
+		if (image == null)
+			return;
+		Display.getDefault().asyncExec(new Runnable() {
+			public void run() {
+				image.dispose();
+			}
+		});
+	}
+	
+	/**
+	 * Called when an image has been loaded.
+	 * The image is attached to the document on the UI thread, where the document cannot change
+	 * between the check for a newer document and setting the image. 
 	 */
-	private void onImageLoaderFinished(ImageLoader imageLoader) {
+	private void onImageLoaderFinished(final ImageLoader imageLoader) {
+		pageViewer.getMainWindow().getShell().getDisplay().asyncExec(new Runnable() {
+            public void run() {
+        		try {
+        			//Superseded by a newer document in the meantime?
+        			if (!pageViewer.isCurrent(imageLoader)) {
+        				discardResult(imageLoader);
+        				return;
+        			}
+        			
+        			final Image image = imageLoader.getImage();
+        			pageViewer.getDocument().setImage(image);
+        			
+        			//Preview -> decode the full resolution in the background
+        			if (image.getPreviewLevel() > 0) {
+        				FullResolutionLoader fullResolutionLoader = new FullResolutionLoader(pageViewer.getMainWindow().getShell().getDisplay(), 
+        																					imageLoader.takeRemainingSource(), image, imageLoader.getCacheKey());
+        				fullResolutionLoader.setGeneration(imageLoader.getGeneration());
+        				pageViewer.runTaskAsync(fullResolutionLoader);
+        			}
+        			//Calculate reduced resolution versions in the background (tiled images are decoded at the required resolution)
+        			else if (!image.isTiled()) 
+        				buildImagePyramid(image, imageLoader.getGeneration());
+        			
+        			onDocumentPartLoaded(imageLoader);
+        		} catch (Exception exc) {
+        			showError("Error", "The page image could not be shown:\n" + exc);
+        		}
+            }
+         });
+	}
+	
+	/**
+	 * Called when the page content or the page image has been loaded (both are loaded in parallel).
+	 * The image is displayed as soon as it is available, the layout overlays are added
+	 * once the page has been post-processed (which requires both parts).
+	 * @param task The loader that has finished
+	 */
+	private void onDocumentPartLoaded(final Task task) {
 		try {
-			final Image image = imageLoader.getImage();
-			pageViewer.getDocument().setImage(image);
-			
 			pageViewer.getMainWindow().getShell().getDisplay().asyncExec(new Runnable() {
 	            public void run() {
 	        		try {
-	        			PageLayout pageLayout = pageViewer.getDocument().getPageLayout();
+	        			//Document replaced in the meantime?
+	        			if (!pageViewer.isCurrent(task))
+	        				return;
+	        			Document document = pageViewer.getDocument();
 	        			
-	        			//Post-process
-	        			pageViewer.getXmlLoader().postProcess(pageViewer.getDocument().getPage(), image.getWidth(), image.getHeight(), 0, 0);
+	        			//Image available
+	        			if (document.getImage() != null && document != imageDocument) {
+	        				imageDocument = document;
+	        				onImageAvailable(document);
+	        			}
 	        			
-	        			//Init display mode
-	        			int displayMode = DocumentView.DISPLAYMODE_IMAGE;
-	        			// If there are regions - activate region mode
-	        			if (pageLayout.getRegionCount() > 0)
-	        				displayMode |= DocumentView.DISPLAYMODE_REGION; 
-	        			pageViewer.setDisplayMode(displayMode);
-	        			
-	        			//Enable/disable toolbar buttons
-						pageViewer.enableAction("SHOW_PAGE_DATA", true);
-						pageViewer.enableAction("ZOOM_IN", true);
-						pageViewer.enableAction("ZOOM_OUT", true);
-						pageViewer.enableAction("ZOOM_100", true);
-						pageViewer.enableAction("ZOOM_FIT", true);
-						pageViewer.enableAction("DISPLAY_IMAGE", true);
-						pageViewer.enableAction("DISPLAY_BORDER", 
-								pageLayout.getBorder() != null);
-						pageViewer.enableAction("DISPLAY_PRINTSPACE",
-								pageLayout.getPrintSpace() != null);
-						pageViewer.enableAction("DISPLAY_REGIONS", 
-												pageViewer.getDocument().getPageLayout().getRegionCount() > 0);
-						pageViewer.enableAction("DISPLAY_READING_ORDER", 
-								pageViewer.getDocument().getPageLayout().getReadingOrder() != null 
-								&& pageViewer.getDocument().getPageLayout().getReadingOrder().getRoot().getSize() > 0);
-						pageViewer.enableAction("DISPLAY_TEXTLINES", 
-								pageLayout.hasLowLevelTextObject(LowLevelTextType.TextLine));
-						pageViewer.enableAction("DISPLAY_WORDS", 
-								pageLayout.hasLowLevelTextObject(LowLevelTextType.Word));
-						pageViewer.enableAction("DISPLAY_GLYPHS", 
-								pageLayout.hasLowLevelTextObject(LowLevelTextType.Glyph));
-						
-						//Check/uncheck toolbar buttons
-						pageViewer.checkButtonForAction("DISPLAY_BORDER", 
-								(displayMode & DocumentView.DISPLAYMODE_BORDER) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_PRINTSPACE",
-								(displayMode & DocumentView.DISPLAYMODE_PRINTSPACE) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_REGIONS", 
-								(displayMode & DocumentView.DISPLAYMODE_REGION) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_READING_ORDER", 
-								(displayMode & DocumentView.DISPLAYMODE_READING_ORDER) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_TEXTLINES", 
-								(displayMode & DocumentView.DISPLAYMODE_TEXTLINE) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_WORDS", 
-								(displayMode & DocumentView.DISPLAYMODE_WORD) != 0);
-						pageViewer.checkButtonForAction("DISPLAY_GLYPHS", 
-								(displayMode & DocumentView.DISPLAYMODE_GLYPH) != 0);
-						
-						//Refresh view?
-						if (displayMode != DocumentView.DISPLAYMODE_IMAGE)
-							pageViewer.refreshViews();
+	        			//Both available
+	        			Page page = getLoadedPage();
+	        			if (page != null && document.getImage() != null && document != initialisedDocument) {
+	        				initialisedDocument = document;
+	        				onLayoutAvailable(document, page, task.getGeneration());
+	        			}
 	        		} catch (Exception exc) {
-	        			exc.printStackTrace();
+	        			showError("Error", "The document could not be shown:\n" + exc);
 	        		}
 	            }
 	         });
 		} catch (Exception exc) {
-			exc.printStackTrace(); //TODO
+			showError("Error", "The document could not be shown:\n" + exc);
 		}
 	}
 	
+	/**
+	 * Returns the page content read for the current document (not set for the document before it has been post-processed)
+	 * @return Page or <code>null</code> if the page content has not been loaded (yet)
+	 */
+	private Page getLoadedPage() {
+		XmlDocumentLayoutLoader xmlLoader = pageViewer.getXmlLoader();
+		return xmlLoader != null && xmlLoader.isSuccessfull() ? xmlLoader.getPage() : null;
+	}
+	
+	/**
+	 * Shows the page image without any overlays (to be called from the UI thread)
+	 */
+	private void onImageAvailable(Document document) {
+		//Overlays of the previous document would only show up empty
+		if (document != initialisedDocument) {
+			pageViewer.setDisplayMode(DocumentView.DISPLAYMODE_IMAGE);
+			updateLayoutActions(null, DocumentView.DISPLAYMODE_IMAGE);
+		}
+		
+		pageViewer.enableAction("ZOOM_IN", true);
+		pageViewer.enableAction("ZOOM_OUT", true);
+		pageViewer.enableAction("ZOOM_100", true);
+		pageViewer.enableAction("ZOOM_FIT", true);
+		pageViewer.enableAction("DISPLAY_IMAGE", true);
+	}
+	
+	/**
+	 * Starts post-processing the page content and preparing the layout overlays in the background
+	 * (to be called from the UI thread)
+	 */
+	private void onLayoutAvailable(Document document, Page page, int generation) {
+		DocumentPreparer preparer = new DocumentPreparer(document, page, pageViewer.getXmlLoader(), 
+											new ArrayList<DocumentView>(pageViewer.getDocumentViews()));
+		preparer.setGeneration(generation);
+		pageViewer.runTaskAsync(preparer);
+	}
+	
+	/**
+	 * Called when the page content has been post-processed and the overlays have been prepared.
+	 * Installs the results and shows the overlays.
+	 */
+	private void onDocumentPrepared(final DocumentPreparer preparer) {
+		pageViewer.getMainWindow().getShell().getDisplay().asyncExec(new Runnable() {
+            public void run() {
+        		try {
+        			//Document replaced in the meantime?
+        			if (!pageViewer.isCurrent(preparer) || pageViewer.getDocument() != preparer.getDocument())
+        				return;
+        			preparer.handOff();
+        			pageViewer.enableAction("SHOW_PAGE_DATA", true);
+        			
+        			int displayMode = preparer.getDisplayMode();
+        			pageViewer.setDisplayMode(displayMode);
+        			updateLayoutActions(preparer.getDocument().getPageLayout(), displayMode);
+        			
+        			//Refresh view?
+        			if (displayMode != DocumentView.DISPLAYMODE_IMAGE)
+        				pageViewer.refreshViews();
+        		} catch (Exception exc) {
+        			showError("Error", "The page content could not be shown:\n" + exc);
+        		}
+            }
+         });
+	}
+	
+	/**
+	 * Enables and checks the toolbar buttons for the layout overlays
+	 * @param pageLayout Layout of the current page (<code>null</code> to disable all overlay buttons)
+	 * @param displayMode Current display mode (see DocumentView.DISPLAYMODE_... constants)
+	 */
+	private void updateLayoutActions(PageLayout pageLayout, int displayMode) {
+		//Enable/disable toolbar buttons
+		pageViewer.enableAction("DISPLAY_BORDER", 
+				pageLayout != null && pageLayout.getBorder() != null);
+		pageViewer.enableAction("DISPLAY_PRINTSPACE",
+				pageLayout != null && pageLayout.getPrintSpace() != null);
+		pageViewer.enableAction("DISPLAY_REGIONS", 
+				pageLayout != null && pageLayout.getRegionCount() > 0);
+		pageViewer.enableAction("DISPLAY_READING_ORDER", 
+				pageLayout != null && pageLayout.getReadingOrder() != null 
+				&& pageLayout.getReadingOrder().getRoot().getSize() > 0);
+		pageViewer.enableAction("DISPLAY_TEXTLINES", 
+				pageLayout != null && pageLayout.hasLowLevelTextObject(LowLevelTextType.TextLine));
+		pageViewer.enableAction("DISPLAY_WORDS", 
+				pageLayout != null && pageLayout.hasLowLevelTextObject(LowLevelTextType.Word));
+		pageViewer.enableAction("DISPLAY_GLYPHS", 
+				pageLayout != null && pageLayout.hasLowLevelTextObject(LowLevelTextType.Glyph));
+		
+		//Check/uncheck toolbar buttons
+		pageViewer.checkButtonForAction("DISPLAY_BORDER", 
+				(displayMode & DocumentView.DISPLAYMODE_BORDER) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_PRINTSPACE",
+				(displayMode & DocumentView.DISPLAYMODE_PRINTSPACE) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_REGIONS", 
+				(displayMode & DocumentView.DISPLAYMODE_REGION) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_READING_ORDER", 
+				(displayMode & DocumentView.DISPLAYMODE_READING_ORDER) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_TEXTLINES", 
+				(displayMode & DocumentView.DISPLAYMODE_TEXTLINE) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_WORDS", 
+				(displayMode & DocumentView.DISPLAYMODE_WORD) != 0);
+		pageViewer.checkButtonForAction("DISPLAY_GLYPHS", 
+				(displayMode & DocumentView.DISPLAYMODE_GLYPH) != 0);
+	}
+	
+	/**
+	 * Starts calculating the reduced resolution versions of the given image
+	 * @param generation Document generation the image belongs to
+	 */
+	private void buildImagePyramid(Image image, int generation) {
+		ImagePyramidBuilder pyramidBuilder = new ImagePyramidBuilder(image);
+		pyramidBuilder.setGeneration(generation);
+		pageViewer.runTaskAsync(pyramidBuilder);
+	}
+	
+	/**
+	 * Called when the full resolution of an image has been decoded (replaces the preview)
+	 */
+	private void onFullResolutionLoaded(final FullResolutionLoader loader) {
+		pageViewer.getMainWindow().getShell().getDisplay().asyncExec(new Runnable() {
+            public void run() {
+        		try {
+        			//Preview still shown?
+        			if (!pageViewer.isCurrent(loader) || pageViewer.getDocument() == null 
+        					|| pageViewer.getDocument().getImage() != loader.getPreview()) {
+        				loader.getImage().dispose();
+        				return;
+        			}
+        			pageViewer.getDocument().refineImage(loader.getImage());
+        			buildImagePyramid(loader.getImage(), loader.getGeneration());
+        		} catch (Exception exc) {
+        			showError("Error", "The full resolution page image could not be shown:\n" + exc);
+        		}
+            }
+         });
+	}
+	
+	/**
+	 * Called when the reduced resolution versions of an image have been calculated 
+	 */
+	private void onImagePyramidFinished(final ImagePyramidBuilder pyramidBuilder) {
+		pageViewer.getMainWindow().getShell().getDisplay().asyncExec(new Runnable() {
+            public void run() {
+        		try {
+        			//Still the current image?
+        			if (pageViewer.getDocument() == null || pageViewer.getDocument().getImage() != pyramidBuilder.getImage())
+        				return;
+        			pyramidBuilder.getImage().setLevels(pyramidBuilder.getLevels());
+        			pageViewer.getDocument().imageLevelsChanged();
+        		} catch (Exception exc) {
+        			showError("Error", "The reduced resolution versions of the page image could not be used:\n" + exc);
+        		}
+            }
+         });
+	}
+	
 	/**
 	 * Called when an XML file has been loaded 
 	 */
 	private void onXmlLoaderFinished(final XmlDocumentLayoutLoader xmlLoader) {
 		try {
-			pageViewer.getDocument().setPage(xmlLoader.getPage());
+			//The page is set for the document after post-processing (see DocumentPreparer)
+			onDocumentPartLoaded(xmlLoader);
+			
+			//Image already being loaded (path taken from the start of the XML)?
+			if (pageViewer.getImageLoader() != null)
+				return;
+			
 			//Load image
 			final String imageFilePath = pageViewer.getImageFilePath();
 			if (imageFilePath != null) {
@@ -283,6 +502,9 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 					 @Override
 					 public void run()
 					 {
+						//Document replaced in the meantime?
+						if (!pageViewer.isCurrent(xmlLoader))
+							return;
 						String filePath = imageFilePath;
 						
 						//File exists?
@@ -297,20 +519,21 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 						
 						if (filePath != null) {
 							ImageLoader imgLoader = new ImageLoader(pageViewer.getMainWindow().getShell().getDisplay(), filePath);
+							imgLoader.setGeneration(xmlLoader.getGeneration());
 							pageViewer.runTaskAsync(imgLoader);
 						}
 					 }
 				});
 			}
 		} catch (Exception exc) {
-			exc.printStackTrace(); //TODO
+			showError("Error", "The page image could not be loaded:\n" + exc);
 		}
 	}
 	
 	/**
 	 * Called when an XML file has failed
 	 */
-	private void onXmlLoaderFailed(XmlDocumentLayoutLoader task) {
+	private void onXmlLoaderFailed(final XmlDocumentLayoutLoader task) {
 		Display.getDefault().asyncExec(new Runnable()
 		{
 			 @Override
@@ -320,7 +543,10 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 				 MessageBox dialog =
 				     new MessageBox(Display.getDefault().getActiveShell(), SWT.OK);
 				 dialog.setText("XML Load Error");
-				 dialog.setMessage("An XML loading error occured. Please ensure XML validity and try again.");
+				 String message = "An XML loading error occured. Please ensure XML validity and try again.";
+				 if (task.getException() != null)
+					 message += "\n\n" + task.getException();
+				 dialog.setMessage(message);
 
 				 // open dialog and await confirmation
 				 dialog.open();
@@ -328,6 +554,24 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 		});
 	}
 	
+	/**
+	 * Shows an error message (can be called from any thread)
+	 */
+	public void showError(final String title, final String message) {
+		Display.getDefault().asyncExec(new Runnable()
+		{
+			 @Override
+			 public void run()
+			 {
+				 MessageBox dialog =
+				     new MessageBox(Display.getDefault().getActiveShell(), SWT.OK | SWT.ICON_ERROR);
+				 dialog.setText(title);
+				 dialog.setMessage(message);
+				 dialog.open();
+			 }
+		});
+	}
+	
 	/**
 	 * Toggles a flag to display (or hide) specific page content 
 	 * @param mode Collection of bit flags (see DocumentView.DISPLAYMODE_... constants)
@@ -354,6 +598,11 @@ public class EventListener implements SelectionListener, TaskListener, KeyListen
 		} else if (e.character == '*')	{
 			if (pageViewer.getMainWindow().getView() instanceof DocumentImageView)
 				((DocumentImageView)pageViewer.getMainWindow().getView()).resetZoom();
+		} else if (e.keyCode == SWT.F12)	{ //Performance figures on/off
+			if (pageViewer.getMainWindow().getView() instanceof DocumentImageView) {
+				DocumentImageView view = (DocumentImageView)pageViewer.getMainWindow().getView();
+				view.setHudVisible(!view.isHudVisible());
+			}
 		}
 	}
 
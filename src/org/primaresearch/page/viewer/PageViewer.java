@@ -17,16 +17,24 @@ package org.primaresearch.page.viewer;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.primaresearch.page.viewer.dla.XmlDocumentLayoutLoader;
 import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.TaskListener;
+import org.primaresearch.page.viewer.extra.TaskScheduler;
+import org.primaresearch.page.viewer.extra.jfr.ViewerEvent;
+import org.primaresearch.page.viewer.image.DecodedImageCache;
+import org.primaresearch.page.viewer.image.ImageLoader;
 import org.primaresearch.page.viewer.ui.MainWindow;
 import org.primaresearch.page.viewer.ui.views.DocumentView;
 
@@ -40,9 +48,12 @@ public class PageViewer {
 	
 	private MainWindow mainWindow; 
 	private EventListener mainEventListener;
-	private Task currentTask = null;
-	private List<Task> taskQueue = new ArrayList<Task>();
-	private XmlDocumentLayoutLoader xmlLoader;
+	private TaskScheduler taskScheduler = new TaskScheduler();
+	private Set<Task> activeTasks = Collections.synchronizedSet(new HashSet<Task>());
+	/** Incremented for each new document (tasks of older generations are cancelled and their results dropped) */
+	private volatile int documentGeneration = 1;
+	private volatile XmlDocumentLayoutLoader xmlLoader;
+	private volatile ImageLoader imageLoader;
 	private String imageFilePath;
 	private String resolveDir;
 	private Document document;
@@ -50,7 +61,8 @@ public class PageViewer {
 
 	/**
 	 * Main function
-	 * @param args Argument 0 (optional): Page XML file; Argument 1 (optional): Image file; Options: --resolve-dir </path/to/img>
+	 * @param args Argument 0 (optional): Page XML file; Argument 1 (optional): Image file; Options: --resolve-dir </path/to/img>, 
+	 * 				--image-cache <megabytes> (decoded images kept for reopening; 0 = off)
 	 */
 	public static void main(String[] args) {
 		
@@ -62,6 +74,14 @@ public class PageViewer {
 				i++;
 				resolveDir = args[i];
 			}
+			else if ("--image-cache".equals(args[i])) {
+				i++;
+				try {
+					DecodedImageCache.setCapacity(Long.parseLong(args[i]) << 20);
+				} catch (NumberFormatException exc) {
+					System.err.println("Invalid image cache size: " + args[i]);
+				}
+			}
 			else if (pageFilePath == null)
 				pageFilePath = args[i];
 			else 
@@ -154,32 +174,77 @@ public class PageViewer {
 	 * Releases resources 
 	 */
 	private void cleanUp() {
+		taskScheduler.shutdown();
+		DecodedImageCache.setCapacity(0); //Nothing to keep the last page for
 		if (document != null)
 			document.dispose();
 	}
 	
 	/**
-	 * Queues a task to be run asynchronously  
+	 * Queues a task to be run asynchronously (the main event listener is notified when the task has finished).
+	 * Tasks without a generation stamp are stamped with the generation of the current document.
 	 * @param task Task object
+	 * @return Future that is completed with the task when it has finished
 	 */
-	public synchronized void runTaskAsync(Task task) {
-		taskQueue.add(task);
-		processNextTask();
+	public CompletableFuture<Task> runTaskAsync(Task task) {
+		return runTaskAsync(task, mainEventListener);
 	}
 	
 	/**
-	 * Starts the next task from the task queue (if not empty).
+	 * Queues a task to be run asynchronously.
+	 * Tasks without a generation stamp are stamped with the generation of the current document.
+	 * @param task Task object
+	 * @param listener Listener to be notified when the task has finished instead of the main event listener 
+	 * 			(<code>null</code> if the task has its own listeners)
+	 * @return Future that is completed with the task when it has finished
 	 */
-	public void processNextTask() {
-		if (!taskQueue.isEmpty()) {
-			currentTask = taskQueue.get(0);
-			taskQueue.remove(0);
-			try {
-				currentTask.addListener(mainEventListener);
-				currentTask.runAsync();
-			} catch (Exception exc) {
-				exc.printStackTrace(); //TODO
+	public CompletableFuture<Task> runTaskAsync(final Task task, TaskListener listener) {
+		if (task.getGeneration() == 0)
+			task.setGeneration(documentGeneration);
+		//Started for a document that has been replaced in the meantime?
+		if (task.getGeneration() != documentGeneration)
+			task.cancel();
+		if (listener != null)
+			task.addListener(listener);
+		activeTasks.add(task);
+		CompletableFuture<Task> future = taskScheduler.submit(task);
+		future.whenComplete(new BiConsumer<Task, Throwable>() {
+			@Override
+			public void accept(Task result, Throwable exc) {
+				activeTasks.remove(task);
 			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Checks if the given task belongs to the current document
+	 * @return <code>false</code> if the task has been cancelled or was started for a previous document
+	 */
+	public boolean isCurrent(Task task) {
+		return !task.isCancelled() && task.getGeneration() == documentGeneration;
+	}
+	
+	/**
+	 * Returns the generation of the current document (incremented whenever the document is replaced)
+	 */
+	public int getDocumentGeneration() {
+		return documentGeneration;
+	}
+	
+	/**
+	 * Starts a new document generation and cancels all tasks of the previous ones
+	 */
+	private void newDocumentGeneration() {
+		documentGeneration++;
+		List<Task> tasks;
+		synchronized (activeTasks) {
+			tasks = new ArrayList<Task>(activeTasks);
+		}
+		for (Iterator<Task> it = tasks.iterator(); it.hasNext(); ) {
+			Task task = it.next();
+			if (task.getGeneration() != documentGeneration)
+				task.cancel();
 		}
 	}
 
@@ -196,9 +261,19 @@ public class PageViewer {
 	 */
 	public void openDocument(String xmlFilePath, String imageFilePath) {
 		setImageFilePath(imageFilePath);
+		ViewerEvent.setDocumentPath(xmlFilePath);
 		Document doc = new Document();
 		setDocument(doc);
 		xmlLoader = new XmlDocumentLayoutLoader(xmlFilePath, resolveDir);
+		
+		//Start decoding the image right away, in parallel to parsing the XML
+		imageLoader = null;
+		String imagePath = imageFilePath != null ? imageFilePath : xmlLoader.scanImageFilePath();
+		if (imagePath != null && new File(imagePath).exists()) {
+			imageLoader = new ImageLoader(mainWindow.getShell().getDisplay(), imagePath);
+			runTaskAsync(imageLoader);
+		}
+		
 		runTaskAsync(xmlLoader);
 		updateTitle(xmlFilePath);
 	}
@@ -221,12 +296,18 @@ public class PageViewer {
 	 * @param document Document object
 	 */
 	public void setDocument(Document document) {
-		if (this.document != null)
-			this.document.removeListeners();
+		newDocumentGeneration();
+		Document oldDocument = this.document;
+		if (oldDocument != null)
+			oldDocument.removeListeners();
 		this.document = document;
 		
 		for (Iterator<DocumentView> it = documentViews.iterator(); it.hasNext(); )
 			it.next().setDocument(document);
+		
+		//The views share the page image of the document, release it once they have switched
+		if (oldDocument != null)
+			oldDocument.disposeLater();
 	}
 	
 	/**
@@ -296,6 +377,14 @@ public class PageViewer {
 		return xmlLoader;
 	}
 
+	/**
+	 * Returns the image loader that was started together with the XML loader
+	 * @return Loader or <code>null</code> if the image path was not known before the XML had been loaded
+	 */
+	public ImageLoader getImageLoader() {
+		return imageLoader;
+	}
+
 	/**
 	 * Returns the current image file path
 	 * @return File path or <code>null</code>
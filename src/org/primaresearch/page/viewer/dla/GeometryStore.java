@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.dla;
+
+import java.util.Arrays;
+
+import org.primaresearch.maths.geometry.Point;
+import org.primaresearch.maths.geometry.Polygon;
+
+/**
+ * Compact storage for polygon coordinates.<br>
+ * All points are kept in one contiguous array (x1, y1, x2, y2, ...) with offset and
+ * length tables per polygon, plus the bounding box of each polygon.
+ * Built once per page, so that rendering and hit testing can read the geometry
+ * without converting polygons or allocating point objects.
+ * 
+ * @author agent
+ *
+ */
+public class GeometryStore {
+
+	private int[] coords = new int[1024];
+	private int coordCount = 0;
+	private int[] offsets = new int[256];
+	private int[] lengths = new int[256];
+	private int[] boxes = new int[1024];
+	private int count = 0;
+
+	/**
+	 * Adds the given polygon
+	 * @param polygon Polygon (can be <code>null</code>)
+	 * @return ID of the stored polygon or -1 if the polygon was <code>null</code> or empty
+	 */
+	public int add(Polygon polygon) {
+		if (polygon == null || polygon.getSize() == 0)
+			return -1;
+
+		int n = polygon.getSize();
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+			boxes = Arrays.copyOf(boxes, count * 8);
+		}
+		if (coordCount + n * 2 > coords.length)
+			coords = Arrays.copyOf(coords, Math.max(coords.length * 2, coordCount + n * 2));
+
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		offsets[count] = coordCount;
+		lengths[count] = n;
+		for (int i=0; i<n; i++) {
+			Point p = polygon.getPoint(i);
+			coords[coordCount++] = p.x;
+			coords[coordCount++] = p.y;
+			left = Math.min(left, p.x);
+			top = Math.min(top, p.y);
+			right = Math.max(right, p.x);
+			bottom = Math.max(bottom, p.y);
+		}
+		boxes[count*4] = left;
+		boxes[count*4+1] = top;
+		boxes[count*4+2] = right;
+		boxes[count*4+3] = bottom;
+		return count++;
+	}
+
+	/**
+	 * Releases unused capacity (to be called after all polygons have been added)
+	 */
+	public void trim() {
+		coords = Arrays.copyOf(coords, coordCount);
+		offsets = Arrays.copyOf(offsets, count);
+		lengths = Arrays.copyOf(lengths, count);
+		boxes = Arrays.copyOf(boxes, count * 4);
+	}
+
+	/**
+	 * Number of stored polygons
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Number of points of the specified polygon
+	 */
+	public int getPointCount(int id) {
+		return lengths[id];
+	}
+
+	/**
+	 * Index of the first x coordinate of the specified polygon in the coordinate array
+	 */
+	public int getOffset(int id) {
+		return offsets[id];
+	}
+
+	/**
+	 * Returns the coordinate array of all polygons (x1, y1, x2, y2, ...; not to be modified)
+	 */
+	public int[] getCoordinates() {
+		return coords;
+	}
+
+	/** Left side of the bounding box of the specified polygon */
+	public int getLeft(int id) {
+		return boxes[id*4];
+	}
+
+	/** Top side of the bounding box of the specified polygon */
+	public int getTop(int id) {
+		return boxes[id*4+1];
+	}
+
+	/** Right side of the bounding box of the specified polygon */
+	public int getRight(int id) {
+		return boxes[id*4+2];
+	}
+
+	/** Bottom side of the bounding box of the specified polygon */
+	public int getBottom(int id) {
+		return boxes[id*4+3];
+	}
+
+	/**
+	 * Checks if the given point lies within the specified polygon (even-odd rule)
+	 */
+	public boolean isPointInside(int id, int x, int y) {
+		int n = lengths[id];
+		if (n < 3)
+			return false;
+		if (x < boxes[id*4] || x > boxes[id*4+2] || y < boxes[id*4+1] || y > boxes[id*4+3])
+			return false;
+		boolean inside = false;
+		int offset = offsets[id];
+		int x1 = coords[offset + (n-1)*2];
+		int y1 = coords[offset + (n-1)*2 + 1];
+		for (int i=0; i<n; i++) {
+			int x2 = coords[offset + i*2];
+			int y2 = coords[offset + i*2 + 1];
+			if ((y2 > y) != (y1 > y)
+					&& x < (double)(x1 - x2) * (y - y2) / (y1 - y2) + x2)
+				inside = !inside;
+			x1 = x2;
+			y1 = y2;
+		}
+		return inside;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.dla;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.dla.page.layout.physical.ContentIterator;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
+import org.primaresearch.page.viewer.extra.jfr.HitTestEvent;
+
+/**
+ * Spatial index for the content objects of a page layout (one index per hierarchy level)
+ * and ID index over all levels.<br>
+ * Built once when the document has been loaded, so that only objects within
+ * the visible area have to be processed and hit tests only check objects near the given point.
+ * The object outlines (and baselines) are kept in a flat {@link GeometryStore}
+ * and the reading order anchor points in a {@link ReadingOrderGeometry}.
+ * 
+ * @author agent
+ *
+ */
+public class PageLayoutIndex {
+
+	/** Indexed levels (<code>null</code> stands for regions) */
+	private static final ContentType[] LEVELS = new ContentType[] { null, LowLevelTextType.TextLine,
+																	LowLevelTextType.Word, LowLevelTextType.Glyph };
+
+	private Map<ContentType, Level> levels = new HashMap<ContentType, Level>();
+	private Map<String, ContentObject> objectsById = new HashMap<String, ContentObject>();
+	private GeometryStore geometry = new GeometryStore();
+	private int borderId = -1;
+	private int printSpaceId = -1;
+	private ReadingOrderGeometry readingOrderGeometry;
+
+	/**
+	 * Constructor (builds the index)
+	 * @param layout Page layout to index
+	 */
+	public PageLayoutIndex(PageLayout layout) {
+		if (layout.getBorder() != null)
+			borderId = geometry.add(layout.getBorder().getCoords());
+		if (layout.getPrintSpace() != null)
+			printSpaceId = geometry.add(layout.getPrintSpace().getCoords());
+		for (int i=0; i<LEVELS.length; i++)
+			levels.put(LEVELS[i], new Level(layout, LEVELS[i], geometry, objectsById));
+		geometry.trim();
+		readingOrderGeometry = new ReadingOrderGeometry(layout, this);
+	}
+
+	/**
+	 * Returns the geometry of all indexed objects
+	 */
+	public GeometryStore getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Returns the geometry ID of the page border
+	 * @return ID in the geometry store or -1 if there is no border
+	 */
+	public int getBorderId() {
+		return borderId;
+	}
+
+	/**
+	 * Returns the geometry ID of the print space
+	 * @return ID in the geometry store or -1 if there is no print space
+	 */
+	public int getPrintSpaceId() {
+		return printSpaceId;
+	}
+
+	/**
+	 * Returns the anchor points of the reading order elements
+	 */
+	public ReadingOrderGeometry getReadingOrderGeometry() {
+		return readingOrderGeometry;
+	}
+
+	/**
+	 * Returns the content object (region, text line, word or glyph) with the given ID
+	 * @return Content object or <code>null</code> if there is no object with that ID
+	 */
+	public ContentObject getObjectById(String id) {
+		return id != null ? objectsById.get(id) : null;
+	}
+
+	/**
+	 * Returns all items of the given type with a bounding box intersecting the specified area
+	 * @param type Content type (<code>null</code> for regions)
+	 * @return Item indices in layout order (see {@link #getObject(ContentType, int)})
+	 */
+	public int[] query(ContentType type, int left, int top, int right, int bottom) {
+		Level level = levels.get(type);
+		if (level == null)
+			return new int[0];
+		return level.index.query(left, top, right, bottom);
+	}
+
+	/**
+	 * Returns the content object for the given item
+	 * @param type Content type (<code>null</code> for regions)
+	 * @param item Item index
+	 */
+	public ContentObject getObject(ContentType type, int item) {
+		return levels.get(type).objects.get(item);
+	}
+
+	/**
+	 * Returns the geometry ID of the outline of the given item
+	 * @param type Content type (<code>null</code> for regions)
+	 * @param item Item index
+	 * @return ID in the geometry store or -1 if the object has no outline
+	 */
+	public int getCoordsId(ContentType type, int item) {
+		return levels.get(type).coordsIds[item];
+	}
+
+	/**
+	 * Returns the geometry ID of the baseline of the given item
+	 * @param type Content type (<code>null</code> for regions)
+	 * @param item Item index
+	 * @return ID in the geometry store or -1 if the object has no baseline
+	 */
+	public int getBaselineId(ContentType type, int item) {
+		return levels.get(type).baselineIds[item];
+	}
+
+	/**
+	 * Returns the first object (in layout order) of the given type that contains the specified point.
+	 * Uses the spatial index to find candidates by bounding box and then checks the polygon.
+	 * @param type Content type (<code>null</code> for regions)
+	 * @return Content object or <code>null</code> if there is no object at the given position
+	 */
+	public ContentObject getObjectAt(ContentType type, int x, int y) {
+		Level level = levels.get(type);
+		if (level == null)
+			return null;
+		HitTestEvent event = new HitTestEvent();
+		event.begin();
+		int[] items = level.index.query(x, y, x, y);
+		ContentObject result = null;
+		for (int i=0; i<items.length && result == null; i++) {
+			int coordsId = level.coordsIds[items[i]];
+			if (coordsId >= 0 && geometry.isPointInside(coordsId, x, y))
+				result = level.objects.get(items[i]);
+		}
+		if (event.shouldCommit()) {
+			event.level = type != null ? type.getName() : "Region";
+			event.x = x;
+			event.y = y;
+			event.candidates = items.length;
+			event.hit = result != null;
+			event.commit();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of indexed objects of the given type
+	 * @param type Content type (<code>null</code> for regions)
+	 */
+	public int getObjectCount(ContentType type) {
+		Level level = levels.get(type);
+		return level != null ? level.objects.size() : 0;
+	}
+
+	/**
+	 * Objects and spatial index of one hierarchy level
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class Level {
+		List<ContentObject> objects = new ArrayList<ContentObject>();
+		int[] coordsIds;
+		int[] baselineIds;
+		SpatialIndex index;
+
+		Level(PageLayout layout, ContentType type, GeometryStore geometry, Map<String, ContentObject> objectsById) {
+			int[] boxes = new int[256];
+			coordsIds = new int[64];
+			baselineIds = new int[64];
+			for (ContentIterator it = layout.iterator(type); it.hasNext(); ) {
+				ContentObject obj = it.next();
+				if (obj.getId() != null && !objectsById.containsKey(obj.getId().toString()))
+					objectsById.put(obj.getId().toString(), obj);
+				int coordsId = geometry.add(obj.getCoords());
+				int baselineId = obj instanceof TextLine ? geometry.add(((TextLine)obj).getBaseline()) : -1;
+				if (coordsId < 0 && baselineId < 0)
+					continue;
+
+				int n = objects.size();
+				if (coordsIds.length == n) {
+					coordsIds = Arrays.copyOf(coordsIds, n * 2);
+					baselineIds = Arrays.copyOf(baselineIds, n * 2);
+					boxes = Arrays.copyOf(boxes, n * 8);
+				}
+				coordsIds[n] = coordsId;
+				baselineIds[n] = baselineId;
+
+				//Bounding box (including the baseline of text lines)
+				boxes[n*4] = Integer.MAX_VALUE;
+				boxes[n*4+1] = Integer.MAX_VALUE;
+				boxes[n*4+2] = Integer.MIN_VALUE;
+				boxes[n*4+3] = Integer.MIN_VALUE;
+				addBox(boxes, n, geometry, coordsId);
+				addBox(boxes, n, geometry, baselineId);
+
+				objects.add(obj);
+			}
+			index = new SpatialIndex(boxes, objects.size());
+		}
+
+		/**
+		 * Extends the bounding box of the given item by the bounding box of the specified polygon
+		 */
+		private static void addBox(int[] boxes, int item, GeometryStore geometry, int id) {
+			if (id < 0)
+				return;
+			boxes[item*4] = Math.min(boxes[item*4], geometry.getLeft(id));
+			boxes[item*4+1] = Math.min(boxes[item*4+1], geometry.getTop(id));
+			boxes[item*4+2] = Math.max(boxes[item*4+2], geometry.getRight(id));
+			boxes[item*4+3] = Math.max(boxes[item*4+3], geometry.getBottom(id));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.dla;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the image filename of a PAGE XML file without parsing the whole document.<br>
+ * The file is streamed only up to the start tag of the <code>Page</code> element,
+ * so the image can be loaded while the full layout is still being parsed.
+ * 
+ * @author agent
+ *
+ */
+public class PageXmlImageFilenameScanner {
+
+	private static final String PAGE_ELEMENT = "Page";
+	private static final String IMAGE_FILENAME_ATTRIBUTE = "imageFilename";
+
+	private static XMLInputFactory factory = null;
+
+	/**
+	 * Returns the value of the <code>imageFilename</code> attribute of the <code>Page</code> element
+	 * @param xmlFilePath PAGE XML file
+	 * @return Image filename (as in the XML) or <code>null</code> if not found or the file could not be read
+	 */
+	public static String scan(String xmlFilePath) {
+		XMLStreamReader reader = null;
+		InputStream stream = null;
+		try {
+			stream = new BufferedInputStream(new FileInputStream(xmlFilePath));
+			reader = getFactory().createXMLStreamReader(stream);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& PAGE_ELEMENT.equals(reader.getLocalName())) {
+					return reader.getAttributeValue(null, IMAGE_FILENAME_ATTRIBUTE);
+				}
+			}
+		} catch (Exception exc) {
+			//Not critical, the filename will be taken from the fully parsed page
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+				if (stream != null)
+					stream.close();
+			} catch (Exception exc) {
+			}
+		}
+		return null;
+	}
+
+	private static synchronized XMLInputFactory getFactory() {
+		if (factory == null) {
+			factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		}
+		return factory;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.dla;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.dla.page.layout.logical.Group;
+import org.primaresearch.dla.page.layout.logical.GroupMember;
+import org.primaresearch.dla.page.layout.logical.ReadingOrder;
+import org.primaresearch.dla.page.layout.logical.RegionRef;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.maths.geometry.Point;
+
+/**
+ * Anchor points of all reading order elements of a page.<br>
+ * Calculated once in a single bottom-up pass over the reading order tree
+ * (regions are resolved via the ID index of the page), so that drawing the reading order
+ * does not have to walk the child groups over and over again.
+ * 
+ * @author agent
+ *
+ */
+public class ReadingOrderGeometry {
+
+	private Map<GroupMember, Point> startPoints = new IdentityHashMap<GroupMember, Point>();
+	private Map<GroupMember, Point> endPoints = new IdentityHashMap<GroupMember, Point>();
+
+	/**
+	 * Constructor (calculates all anchor points)
+	 * @param layout Page layout containing the reading order
+	 * @param index Index of the page layout (used to resolve region IDs)
+	 */
+	public ReadingOrderGeometry(PageLayout layout, PageLayoutIndex index) {
+		ReadingOrder readingOrder = layout.getReadingOrder();
+		if (readingOrder != null && readingOrder.getRoot() != null)
+			calculate(index, readingOrder.getRoot());
+	}
+
+	/**
+	 * Returns the point where outgoing connections of the specified reading order element start.
+	 * For a RegionRef element this is simply the centre of the region.
+	 * For ordered groups it is the centre of the last child and for unordered groups the centre of all child centres.
+	 * @return Point (not to be modified) or <code>null</code> if no point is available
+	 */
+	public Point getStartPoint(GroupMember element) {
+		return element != null ? startPoints.get(element) : null;
+	}
+
+	/**
+	 * Returns the point where incoming connections of the specified reading order element end.
+	 * For a RegionRef element this is simply the centre of the region.
+	 * For ordered groups it is the centre of the first child and for unordered groups the centre of all child centres.
+	 * @return Point (not to be modified) or <code>null</code> if no point is available
+	 */
+	public Point getEndPoint(GroupMember element) {
+		return element != null ? endPoints.get(element) : null;
+	}
+
+	/**
+	 * Calculates the anchor points of the given element after the ones of all its children
+	 */
+	private void calculate(PageLayoutIndex index, GroupMember element) {
+		if (element == null) //Should not happen
+			return;
+
+		Point start = null;
+		Point end = null;
+
+		//RegionRef (centre = centre of bounding box)
+		if (element instanceof RegionRef) {
+			end = new Point();
+			ContentObject region = index.getObjectById(((RegionRef)element).getRegionId());
+			if (region instanceof Region)
+				end = region.getCoords().getBoundingBox().getCenter();
+			start = end;
+		}
+		//Group
+		else if (element instanceof Group) {
+			Group group = (Group)element;
+
+			//Children first
+			for (int i=0; i<group.getSize(); i++)
+				calculate(index, group.getMember(i));
+
+			if (group.getSize() > 0) {
+				if (group.isOrdered()) { //ordered -> start = centre of last child, end = centre of first child
+					for (int i=group.getSize()-1; i>=0 && start == null; i--)
+						start = getEndPoint(group.getMember(i));
+					for (int i=0; i<group.getSize() && end == null; i++)
+						end = getEndPoint(group.getMember(i));
+				}
+				else { //unordered (centre = average of all child centres)
+					int x = 0, y = 0, count = 0;
+					for (int i=0; i<group.getSize(); i++) {
+						Point childCenter = getEndPoint(group.getMember(i));
+						if (childCenter != null) {
+							x += childCenter.x;
+							y += childCenter.y;
+							count++;
+						}
+					}
+					if (!(x == 0 && y == 0 || count == 0)) {
+						end = new Point(x / count, y / count);
+						start = end;
+					}
+				}
+			}
+		}
+
+		startPoints.put(element, start);
+		endPoints.put(element, end);
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.dla;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over bounding boxes for fast area queries.<br>
+ * Items are identified by their index (0..n-1) and given as bounding boxes
+ * (left, top, right, bottom for each item).
+ * 
+ * @author agent
+ *
+ */
+public class SpatialIndex {
+
+	/** Smallest cell width/height */
+	private static final int MIN_CELL_SIZE = 16;
+	/** Maximum number of cells per row/column */
+	private static final int MAX_CELLS = 1024;
+
+	private int[] boxes;
+	private int count;
+	private int originX;
+	private int originY;
+	private int cellSize;
+	private int cols;
+	private int rows;
+	private int[][] cells;
+	private int[] cellSizes;
+	private int[] marks;
+	private int stamp = 0;
+
+	/**
+	 * Constructor (builds the grid)
+	 * @param boxes Bounding boxes (4 values per item: left, top, right, bottom)
+	 * @param count Number of items
+	 */
+	public SpatialIndex(int[] boxes, int count) {
+		this.boxes = boxes;
+		this.count = count;
+		marks = new int[count];
+		build();
+	}
+
+	/**
+	 * Number of items in the index
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Builds the grid cells
+	 */
+	private void build() {
+		//Extent of all items
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		for (int i=0; i<count; i++) {
+			left = Math.min(left, boxes[i*4]);
+			top = Math.min(top, boxes[i*4+1]);
+			right = Math.max(right, boxes[i*4+2]);
+			bottom = Math.max(bottom, boxes[i*4+3]);
+		}
+		if (count == 0) {
+			left = top = right = bottom = 0;
+		}
+		originX = left;
+		originY = top;
+		int width = right - left + 1;
+		int height = bottom - top + 1;
+
+		//Cell size (aim for about two items per cell)
+		double area = (double)width * (double)height;
+		cellSize = (int)Math.ceil(Math.sqrt(2.0 * area / Math.max(1, count)));
+		cellSize = Math.max(cellSize, MIN_CELL_SIZE);
+		cellSize = Math.max(cellSize, (Math.max(width, height) + MAX_CELLS - 1) / MAX_CELLS);
+		cols = Math.max(1, (width + cellSize - 1) / cellSize);
+		rows = Math.max(1, (height + cellSize - 1) / cellSize);
+
+		cells = new int[cols * rows][];
+		cellSizes = new int[cols * rows];
+
+		//Assign items to all cells they overlap
+		for (int i=0; i<count; i++) {
+			int c1 = getCol(boxes[i*4]), c2 = getCol(boxes[i*4+2]);
+			int r1 = getRow(boxes[i*4+1]), r2 = getRow(boxes[i*4+3]);
+			for (int r=r1; r<=r2; r++) {
+				for (int c=c1; c<=c2; c++)
+					addToCell(r * cols + c, i);
+			}
+		}
+	}
+
+	private void addToCell(int cell, int item) {
+		int[] content = cells[cell];
+		if (content == null) {
+			content = new int[4];
+			cells[cell] = content;
+		} else if (cellSizes[cell] == content.length) {
+			content = Arrays.copyOf(content, content.length * 2);
+			cells[cell] = content;
+		}
+		content[cellSizes[cell]++] = item;
+	}
+
+	private int getCol(int x) {
+		return Math.max(0, Math.min(cols - 1, (x - originX) / cellSize));
+	}
+
+	private int getRow(int y) {
+		return Math.max(0, Math.min(rows - 1, (y - originY) / cellSize));
+	}
+
+	/**
+	 * Returns all items with a bounding box intersecting the given area.
+	 * @return Item indices in ascending order
+	 */
+	public synchronized int[] query(int left, int top, int right, int bottom) {
+		if (count == 0 || right < left || bottom < top)
+			return new int[0];
+
+		stamp++;
+		if (stamp == 0) { //Overflow
+			Arrays.fill(marks, 0);
+			stamp = 1;
+		}
+
+		int[] result = new int[16];
+		int resultSize = 0;
+		int c1 = getCol(left), c2 = getCol(right);
+		int r1 = getRow(top), r2 = getRow(bottom);
+		for (int r=r1; r<=r2; r++) {
+			for (int c=c1; c<=c2; c++) {
+				int cell = r * cols + c;
+				int[] content = cells[cell];
+				for (int j=0; j<cellSizes[cell]; j++) {
+					int item = content[j];
+					if (marks[item] == stamp)
+						continue;
+					marks[item] = stamp;
+					if (	boxes[item*4] <= right && boxes[item*4+2] >= left
+						&& 	boxes[item*4+1] <= bottom && boxes[item*4+3] >= top) {
+						if (resultSize == result.length)
+							result = Arrays.copyOf(result, resultSize * 2);
+						result[resultSize++] = item;
+					}
+				}
+			}
+		}
+		result = Arrays.copyOf(result, resultSize);
+		Arrays.sort(result);
+		return result;
+	}
+}
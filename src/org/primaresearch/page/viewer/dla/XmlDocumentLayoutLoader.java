@@ -20,6 +20,9 @@ import java.io.File;
 import org.primaresearch.dla.page.Page;
 import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
 import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.Timings;
+import org.primaresearch.page.viewer.extra.jfr.PostProcessEvent;
+import org.primaresearch.page.viewer.extra.jfr.XmlParseEvent;
 
 /**
  * XML loading task.
@@ -40,16 +43,26 @@ public class XmlDocumentLayoutLoader extends Task {
 	public XmlDocumentLayoutLoader(String filePath, String resolveDir) {
 		this.filePath = filePath;
 		this.resolveDir = resolveDir;
+		setPriority(PRIORITY_HIGH);
 	}
 
 	@Override
-	protected boolean doRun() {
+	protected boolean doRun() throws Exception {
 		
+		long start = Timings.start();
+		XmlParseEvent event = new XmlParseEvent();
+		event.begin();
 		try {
 			page = PageXmlInputOutput.readPage(filePath);
-		} catch (Exception e) {
-			e.printStackTrace();
-			return false;
+			checkCancelled(); //Superseded while parsing (the parser itself cannot be interrupted)
+		} finally {
+			Timings.stop(Timings.XML_LOAD, start);
+			if (event.shouldCommit()) {
+				event.fileSize = new File(filePath).length();
+				event.regionCount = page != null && page.getLayout() != null ? page.getLayout().getRegionCount() : 0;
+				event.success = page != null;
+				event.commit();
+			}
 		}
 		return page != null;
 	}
@@ -67,12 +80,31 @@ public class XmlDocumentLayoutLoader extends Task {
 	 * @return The file path or an empty string if no image was specified
 	 */
 	public String getImageFilePath() {
+		return resolveImageFilePath(page.getImageFilename());
+	}
+	
+	/**
+	 * Returns the image file path that is specified in the XML file, without waiting for the XML to be loaded
+	 * (the file is only read up to the Page element; see {@link PageXmlImageFilenameScanner}).
+	 * @return The file path or <code>null</code> if the image filename could not be found
+	 */
+	public String scanImageFilePath() {
+		String imageFilename = PageXmlImageFilenameScanner.scan(filePath);
+		if (imageFilename == null || imageFilename.isEmpty())
+			return null;
+		return resolveImageFilePath(imageFilename);
+	}
+	
+	/**
+	 * Resolves the given image filename (from the XML) to a file path
+	 */
+	private String resolveImageFilePath(String imageFilename) {
 		//Do we have a full path in the XML?
 		try {
-			if (page.getImageFilename() != null 
-					&& (page.getImageFilename().startsWith("/") || page.getImageFilename().contains(":"))
-					&& new File(page.getImageFilename()).exists()) {
-				return page.getImageFilename();
+			if (imageFilename != null 
+					&& (imageFilename.startsWith("/") || imageFilename.contains(":"))
+					&& new File(imageFilename).exists()) {
+				return imageFilename;
 			}
 		} catch (Exception exc) {
 			exc.printStackTrace();
@@ -85,15 +117,25 @@ public class XmlDocumentLayoutLoader extends Task {
 			rootFolder = filePath.substring(0, filePath.lastIndexOf(File.separator));
 		}
 		if (!rootFolder.isEmpty())
-			return rootFolder + (rootFolder.endsWith(File.separator) ? "" : File.separator) + page.getImageFilename();
+			return rootFolder + (rootFolder.endsWith(File.separator) ? "" : File.separator) + imageFilename;
 
-		return page.getImageFilename();
+		return imageFilename;
 	}
 	
 	/**
 	 * Post-processing (e.g. for coordinate conversion)
 	 */
 	public void postProcess(Page page, int imageWidth, int imageHeight, double resX, double resY) {
+		long start = Timings.start();
+		PostProcessEvent event = new PostProcessEvent();
+		event.begin();
 		PageXmlInputOutput.postProcessPage(page, imageWidth, imageHeight, resX, resY);
+		Timings.stop(Timings.POST_PROCESS, start);
+		if (event.shouldCommit()) {
+			event.regionCount = page.getLayout() != null ? page.getLayout().getRegionCount() : 0;
+			event.imageWidth = imageWidth;
+			event.imageHeight = imageHeight;
+			event.commit();
+		}
 	}
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Input stream that stops reading as soon as the owning task has been cancelled.<br>
+ * Used to abandon decoders that only take a stream and cannot be interrupted otherwise.
+ * 
+ * @author agent
+ *
+ */
+public class CancellableInputStream extends FilterInputStream {
+
+	private Task task;
+
+	/**
+	 * Constructor
+	 * @param in Stream to read from
+	 * @param task Task that does the reading
+	 */
+	public CancellableInputStream(InputStream in, Task task) {
+		super(in);
+		this.task = task;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkCancelled();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkCancelled();
+		return super.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		checkCancelled();
+		return super.skip(n);
+	}
+
+	private void checkCancelled() {
+		if (task.isCancelled())
+			throw new CancellationException(task.getClass().getSimpleName() + " cancelled");
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra;
+
+import java.util.Arrays;
+
+/**
+ * The most recent duration samples of an operation (fixed size window).<br>
+ * Older samples are overwritten, so the statistics always reflect the current behaviour.
+ * 
+ * @author agent
+ *
+ */
+public class SampleWindow {
+
+	private long[] samples;
+	private int next = 0;
+	private int size = 0;
+
+	/**
+	 * Constructor
+	 * @param windowSize Number of samples to keep
+	 */
+	public SampleWindow(int windowSize) {
+		samples = new long[windowSize];
+	}
+
+	/**
+	 * Adds a sample
+	 * @param nanos Duration in nanoseconds
+	 */
+	public synchronized void add(long nanos) {
+		samples[next] = nanos;
+		next = (next + 1) % samples.length;
+		if (size < samples.length)
+			size++;
+	}
+
+	/**
+	 * Most recent sample in nanoseconds (0 if there are no samples)
+	 */
+	public synchronized long getLast() {
+		if (size == 0)
+			return 0;
+		return samples[(next + samples.length - 1) % samples.length];
+	}
+
+	/**
+	 * Returns the given percentile of the samples in the window
+	 * @param percentile Percentile (0..100)
+	 * @return Duration in nanoseconds
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (size == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(samples, size);
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile / 100.0 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, index))];
+	}
+}
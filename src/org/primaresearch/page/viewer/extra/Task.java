@@ -18,25 +18,40 @@ package org.primaresearch.page.viewer.extra;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import org.primaresearch.page.viewer.extra.jfr.TaskExecutionEvent;
 
 /**
- * Abstract class for tasks that can be run asynchronously
+ * Abstract class for tasks that can be run asynchronously (see {@link TaskScheduler})
  * 
  * @author Christian Clausner
  *
  */
 public abstract class Task {
+	
+	/** Priority for tasks the user is waiting for (e.g. loading the document) */
+	public static final int PRIORITY_HIGH = 0;
+	/** Default priority */
+	public static final int PRIORITY_NORMAL = 5;
+	/** Priority for background tasks (e.g. preparing caches) */
+	public static final int PRIORITY_LOW = 10;
 
-	private boolean success = false;
+	private volatile boolean success = false;
+	private volatile Throwable exception = null;
 	private volatile boolean running = false;
-	private TaskThread thread = null;
+	private volatile boolean cancelled = false;
+	private volatile int generation = 0;
+	private int priority = PRIORITY_NORMAL;
 	private Set<TaskListener> listeners = new HashSet<TaskListener>();
 	
 	/**
 	 * Method containing the task content (to be overridden)
 	 * @return <code>true</code> if the task was successful; <code>false</code> otherwise
+	 * @throws Exception Any exception is recorded (see {@link #getException()}) and the task counts as failed
+	 * 			(a CancellationException thrown after the task has been cancelled is not recorded)
 	 */
-	protected abstract boolean doRun();
+	protected abstract boolean doRun() throws Exception;
 	
 	/**
 	 * Runs the task synchronously (in the current thread)
@@ -46,28 +61,95 @@ public abstract class Task {
 			return;
 		running = true;
 		
-		success = doRun();
+		TaskExecutionEvent event = new TaskExecutionEvent();
+		event.begin();
+		try {
+			checkCancelled(); //Cancelled while waiting in the queue?
+			success = doRun() && !cancelled;
+		} catch (CancellationException exc) {
+			success = false;
+		} catch (Throwable t) {
+			if (!cancelled)
+				exception = t;
+			success = false;
+		}
+		event.task = getClass().getSimpleName();
+		event.success = success;
+		event.commit();
 		
-		thread = null;
 		running = false;
 		notifyFinished();
 	}
 	
 	/**
-	 * Runs the task asynchronously (in its own thread)
+	 * Returns <code>true</code> if the task was successful; <code>false</code> otherwise
 	 */
-	public synchronized void runAsync() {
-		if (thread != null)
-			return;
-		thread = new TaskThread(this);
-		thread.start();
+	public boolean isSuccessfull() {
+		return success;
 	}
 	
 	/**
-	 * Returns <code>true</code> if the task was successful; <code>false</code> otherwise
+	 * Requests the task to stop. Tasks check the flag at suitable points (see {@link #checkCancelled()}),
+	 * a task that has not been started yet will not run at all.
+	 * A cancelled task is never successful.
 	 */
-	public boolean isSuccessfull() {
-		return success;
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the task has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * To be called by task implementations at points where the work can be safely abandoned
+	 * @throws CancellationException The task has been cancelled
+	 */
+	protected void checkCancelled() throws CancellationException {
+		if (cancelled)
+			throw new CancellationException(getClass().getSimpleName() + " cancelled");
+	}
+	
+	/**
+	 * Returns the document generation this task belongs to (see {@link #setGeneration(int)})
+	 * @return Generation or 0 if not set
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Stamps the task with the generation of the document it was started for.
+	 * Results of tasks from an older generation can then be recognised and dropped.
+	 */
+	public void setGeneration(int generation) {
+		this.generation = generation;
+	}
+	
+	/**
+	 * Returns the exception that made the task fail
+	 * @return Exception or <code>null</code> if the task did not throw an exception
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+	
+	/**
+	 * Returns the priority of this task (lower values are run first; see PRIORITY_... constants)
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Sets the priority of this task (to be set before the task is queued)
+	 * @param priority Lower values are run first (see PRIORITY_... constants)
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
 	}
 	
 	/**
@@ -87,23 +169,4 @@ public abstract class Task {
 			listener.taskFinished(this);
 		}
 	}
-	
-	/**
-	 * Thread implementation for asynchronous tasks
-	 *  
-	 * @author Christian Clausner
-	 *
-	 */
-	static class TaskThread extends Thread {
-		private Task task;
-		
-		public TaskThread(Task task) {
-			this.task = task;
-		}
-		
-		public void run() {
-	        task.run();
-	    }
-	}
-
 }
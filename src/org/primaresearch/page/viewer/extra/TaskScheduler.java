@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a bounded pool of worker threads.<br>
+ * Waiting tasks are started in order of their priority (see {@link Task#getPriority()}) and,
+ * for equal priority, in order of submission. Independent tasks run in parallel.
+ * 
+ * @author agent
+ *
+ */
+public class TaskScheduler {
+
+	/** Upper limit for the number of worker threads */
+	private static final int MAX_THREADS = 4;
+
+	private ThreadPoolExecutor executor;
+	private AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Constructor
+	 */
+	public TaskScheduler() {
+		int threads = Math.max(2, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+											new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues the given task
+	 * @param task Task to run
+	 * @return Future that is completed with the task when it has finished (successfully or not),
+	 * 			completed exceptionally if the task threw an exception or cancelled if the task was cancelled
+	 */
+	public CompletableFuture<Task> submit(final Task task) {
+		final CompletableFuture<Task> future = new CompletableFuture<Task>();
+		executor.execute(new QueuedTask(task, sequence.getAndIncrement(), future));
+		return future;
+	}
+
+	/**
+	 * Stops accepting tasks. Waiting tasks are discarded and running tasks are left to finish.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Queue entry (ordered by priority and submission)
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class QueuedTask implements Runnable, Comparable<QueuedTask> {
+		private Task task;
+		private long sequence;
+		private CompletableFuture<Task> future;
+
+		QueuedTask(Task task, long sequence, CompletableFuture<Task> future) {
+			this.task = task;
+			this.sequence = sequence;
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} catch (Throwable t) { //Exception from a task listener
+				future.completeExceptionally(t);
+				return;
+			}
+			if (task.isCancelled())
+				future.cancel(false);
+			else if (task.getException() != null)
+				future.completeExceptionally(task.getException());
+			else
+				future.complete(task);
+		}
+
+		@Override
+		public int compareTo(QueuedTask other) {
+			if (task.getPriority() != other.task.getPriority())
+				return task.getPriority() < other.task.getPriority() ? -1 : 1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Creates named daemon threads (so that the pool does not keep the application alive)
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "PageViewer-Task-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Central registry of timing measurements (a window of the most recent samples per measured operation).<br>
+ * Usage: <code>long start = Timings.start(); ... Timings.stop(Timings.PAINT, start);</code>
+ * 
+ * @author agent
+ *
+ */
+public class Timings {
+
+	public static final String PAINT 			= "Paint";
+	public static final String XML_LOAD 		= "XML load";
+	public static final String IMAGE_LOAD 		= "Image load";
+	public static final String POST_PROCESS 	= "Post-process";
+	/** Refreshing the document view, up to the next completed paint */
+	public static final String REFRESH 			= "Refresh";
+	/** Compiling the display list of an overlay layer */
+	public static final String COMPILE 			= "Compile";
+	/** Prefix for overlay layer rendering (followed by the layer name) */
+	public static final String LAYER_PREFIX 	= "Layer ";
+
+	/** Number of samples kept per operation */
+	private static final int WINDOW_SIZE = 128;
+
+	private static Map<String, SampleWindow> windows = new LinkedHashMap<String, SampleWindow>();
+
+	/**
+	 * Returns the start time for a measurement
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time elapsed since the given start time
+	 * @param name Operation name
+	 * @param start Start time (see {@link #start()})
+	 */
+	public static void stop(String name, long start) {
+		get(name).add(System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the samples of the given operation (created if necessary)
+	 */
+	public static synchronized SampleWindow get(String name) {
+		SampleWindow window = windows.get(name);
+		if (window == null) {
+			window = new SampleWindow(WINDOW_SIZE);
+			windows.put(name, window);
+		}
+		return window;
+	}
+
+	/**
+	 * Formats the given duration in milliseconds (one decimal)
+	 */
+	public static String toMillis(long nanos) {
+		return String.format("%.1f ms", nanos / 1000000.0);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Paint of the document image canvas
+ * 
+ * @author agent
+ *
+ */
+@Name("org.primaresearch.pageviewer.CanvasPaint")
+@Label("Canvas Paint")
+@Category({ "PAGE Viewer", "Rendering" })
+@Description("Paint of the document image canvas")
+public class CanvasPaintEvent extends ViewerEvent {
+
+	@Label("Width")
+	public int width;
+
+	@Label("Height")
+	public int height;
+
+	@Label("Interactive")
+	public boolean interactive;
+
+	@Label("Native Allocations")
+	public int allocations;
+
+	@Label("Back Buffer Size")
+	@DataAmount
+	public long bufferSize;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Search for the page object at the mouse position
+ * 
+ * @author agent
+ *
+ */
+@Name("org.primaresearch.pageviewer.HitTest")
+@Label("Hit Test")
+@Category({ "PAGE Viewer", "Interaction" })
+@Description("Search for the page object at the mouse position")
+public class HitTestEvent extends ViewerEvent {
+
+	@Label("Level")
+	public String level;
+
+	@Label("X")
+	public int x;
+
+	@Label("Y")
+	public int y;
+
+	@Label("Candidates")
+	public int candidates;
+
+	@Label("Hit")
+	public boolean hit;
+}
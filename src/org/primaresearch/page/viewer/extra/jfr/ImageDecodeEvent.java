@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading and decoding of a page image
+ * 
+ * @author agent
+ *
+ */
+@Name("org.primaresearch.pageviewer.ImageDecode")
+@Label("Image Decode")
+@Category({ "PAGE Viewer", "Loading" })
+@Description("Loading and decoding of a page image")
+public class ImageDecodeEvent extends ViewerEvent {
+
+	@Label("Image Path")
+	public String imagePath;
+
+	@Label("File Size")
+	@DataAmount
+	public long fileSize;
+
+	@Label("Decoded Size")
+	@DataAmount
+	public long decodedSize;
+
+	@Label("Width")
+	public int width;
+
+	@Label("Height")
+	public int height;
+
+	@Label("Cached")
+	@Description("Decoded pixels taken from the decoded image cache (the file was not read)")
+	public boolean cached;
+}
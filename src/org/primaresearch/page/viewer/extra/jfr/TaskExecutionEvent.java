@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Execution of a background task (loading, post-processing, ...)
+ * 
+ * @author agent
+ *
+ */
+@Name("org.primaresearch.pageviewer.TaskExecution")
+@Label("Task Execution")
+@Category({ "PAGE Viewer", "Loading" })
+@Description("Execution of a background task (loading, post-processing, ...)")
+public class TaskExecutionEvent extends ViewerEvent {
+
+	@Label("Task")
+	public String task;
+
+	@Label("Successful")
+	public boolean success;
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base class for the Java Flight Recorder events of the viewer.<br>
+ * All events carry the path of the document that was open when the event was created.
+ * Recording has to be enabled on the JVM (e.g. <code>-XX:StartFlightRecording</code>);
+ * otherwise the events have virtually no cost.
+ * 
+ * @author agent
+ *
+ */
+public abstract class ViewerEvent extends Event {
+
+	private static volatile String currentDocumentPath = null;
+
+	@Label("Document Path")
+	String documentPath;
+
+	/**
+	 * Constructor
+	 */
+	protected ViewerEvent() {
+		documentPath = currentDocumentPath;
+	}
+
+	/**
+	 * Sets the path of the current document (added to all subsequently created events)
+	 */
+	public static void setDocumentPath(String path) {
+		currentDocumentPath = path;
+	}
+}
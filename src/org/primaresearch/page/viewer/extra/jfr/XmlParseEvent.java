@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.extra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of a PAGE XML file
+ * 
+ * @author agent
+ *
+ */
+@Name("org.primaresearch.pageviewer.XmlParse")
+@Label("XML Parse")
+@Category({ "PAGE Viewer", "Loading" })
+@Description("Parsing of a PAGE XML file")
+public class XmlParseEvent extends ViewerEvent {
+
+	@Label("File Size")
+	@DataAmount
+	public long fileSize;
+
+	@Label("Region Count")
+	public int regionCount;
+
+	@Label("Successful")
+	public boolean success;
+}
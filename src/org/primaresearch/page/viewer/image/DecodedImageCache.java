@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Application-wide cache for decoded page images, so that switching between documents 
+ * referencing the same image file does not decode the file again.<br>
+ * Only images that are no longer displayed are kept: a page image is added when it is disposed
+ * (see {@link Image#setCacheKey(Key)}) and removed again when it is loaded from the cache, 
+ * so the pixels of a page are never held by the cache and a displayed image at the same time.<br>
+ * Entries are identified by canonical file path, modification time and file size 
+ * (a changed file is decoded again). The cache is limited by the decoded size of its entries;
+ * the least recently used entries are removed first.<br>
+ * 
+ * @author agent
+ *
+ */
+public class DecodedImageCache {
+
+	/** Default limit for the decoded size of all cached images (in bytes) */
+	public static final long DEFAULT_CAPACITY = 256L << 20;
+
+	private static long capacity = DEFAULT_CAPACITY;
+	private static long size = 0;
+	/** Entries in order of access (least recently used first) */
+	private static Map<Key, ImageData> entries = new LinkedHashMap<Key, ImageData>(16, 0.75f, true);
+
+	/**
+	 * Creates the cache key for the given image file
+	 * @param filePath Image file path
+	 * @return Key or <code>null</code> if the file does not exist or the path cannot be resolved
+	 */
+	public static Key createKey(String filePath) {
+		File file = new File(filePath);
+		try {
+			long lastModified = file.lastModified();
+			if (lastModified == 0L) //File does not exist
+				return null;
+			return new Key(file.getCanonicalPath(), lastModified, file.length());
+		} catch (IOException exc) {
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the image data for the given key from the cache
+	 * @param key See {@link #createKey(String)} (can be <code>null</code>)
+	 * @return Image data (owned by the caller) or <code>null</code> if not cached
+	 */
+	public static synchronized ImageData take(Key key) {
+		if (key == null)
+			return null;
+		ImageData data = entries.remove(key);
+		if (data != null)
+			size -= getSize(data);
+		return data;
+	}
+
+	/**
+	 * Checks if an image of the given decoded size can be cached at all
+	 */
+	public static synchronized boolean fits(long bytes) {
+		return bytes > 0 && bytes <= capacity;
+	}
+
+	/**
+	 * Adds decoded image data to the cache (removes least recently used entries if the capacity is exceeded)
+	 * @param key See {@link #createKey(String)} (can be <code>null</code>)
+	 * @param data Fully decoded image (owned by the cache from now on)
+	 */
+	public static synchronized void put(Key key, ImageData data) {
+		if (key == null || data == null)
+			return;
+		long dataSize = getSize(data);
+		if (dataSize > capacity)
+			return;
+		ImageData old = entries.put(key, data);
+		if (old != null)
+			size -= getSize(old);
+		size += dataSize;
+		evict();
+	}
+
+	/**
+	 * Sets the limit for the decoded size of all cached images
+	 * @param bytes Capacity in bytes (0 disables the cache)
+	 */
+	public static synchronized void setCapacity(long bytes) {
+		capacity = Math.max(0L, bytes);
+		evict();
+	}
+
+	/**
+	 * Returns the limit for the decoded size of all cached images (in bytes)
+	 */
+	public static synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public static synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Removes least recently used entries until the cache fits into its capacity
+	 */
+	private static void evict() {
+		for (Iterator<ImageData> it = entries.values().iterator(); it.hasNext() && size > capacity; ) {
+			size -= getSize(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns the size of the pixel data of the given image (in bytes)
+	 */
+	private static long getSize(ImageData data) {
+		long bytes = data.data != null ? data.data.length : 0;
+		if (data.alphaData != null)
+			bytes += data.alphaData.length;
+		if (data.maskData != null)
+			bytes += data.maskData.length;
+		return bytes;
+	}
+
+	/**
+	 * Cache key (canonical file path, modification time and file size)
+	 * 
+	 * @author agent
+	 *
+	 */
+	public static class Key {
+		private String path;
+		private long lastModified;
+		private long fileSize;
+
+		Key(String path, long lastModified, long fileSize) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.fileSize = fileSize;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return path.equals(other.path) && lastModified == other.lastModified && fileSize == other.fileSize;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + (int)(lastModified ^ (lastModified >>> 32)) * 17 + (int)fileSize;
+		}
+	}
+}
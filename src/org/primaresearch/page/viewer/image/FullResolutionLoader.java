@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.widgets.Display;
+import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.Timings;
+
+/**
+ * Task for decoding the full resolution of an image that has been loaded as low resolution preview
+ * (see {@link ImageLoader}). The result replaces the preview (see {@link org.primaresearch.page.viewer.Document#refineImage(Image)}).
+ * 
+ * @author agent
+ *
+ */
+public class FullResolutionLoader extends Task {
+
+	private Display display;
+	private ImageSource source;
+	private Image preview;
+	private DecodedImageCache.Key cacheKey;
+	private Image image = null;
+
+	/**
+	 * Constructor
+	 * @param display SWT display object
+	 * @param source Opened image file (taken over and closed by this task)
+	 * @param preview The preview that is to be replaced
+	 * @param cacheKey Key for handing the decoded image over to the {@link DecodedImageCache} on dispose (can be <code>null</code>)
+	 */
+	public FullResolutionLoader(Display display, ImageSource source, Image preview, DecodedImageCache.Key cacheKey) {
+		this.display = display;
+		this.source = source;
+		this.preview = preview;
+		this.cacheKey = cacheKey;
+	}
+
+	@Override
+	protected boolean doRun() throws Exception {
+		long start = Timings.start();
+		try {
+			ImageData data = source.decode(null, 1, this);
+			checkCancelled();
+			image = new Image(display, data); //Takes over the decoded data
+			image.setCacheKey(cacheKey);
+		} finally {
+			closeSource();
+		}
+		Timings.stop(Timings.IMAGE_LOAD, start);
+		return true;
+	}
+
+	/**
+	 * Closes the image file (if the task has been cancelled before it was run)
+	 */
+	public synchronized void closeSource() {
+		if (source != null)
+			source.close();
+		source = null;
+	}
+
+	/**
+	 * Returns the full resolution image
+	 * @return Image or <code>null</code> if the task failed
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the preview that is to be replaced
+	 */
+	public Image getPreview() {
+		return preview;
+	}
+}
@@ -15,16 +15,55 @@
  */
 package org.primaresearch.page.viewer.image;
 
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Display;
 
 /**
- * Wrapper for an SWT image
+ * Wrapper for an SWT image.<br>
+ * <br>
+ * Ownership: This object is the single owner of the pixels of a page. The SWT image (native)
+ * is shared with the views for drawing, which must neither copy nor dispose it. The decoded
+ * pixel data (Java heap) is only kept until it has been handed over to the task that calculates
+ * the reduced resolution versions (see {@link #takeDecodedData()}), unless it goes to the
+ * {@link DecodedImageCache} later.<br>
+ * <br>
+ * Bilevel and greyscale images (palette based, up to 8 bit) are kept as decoded image data only,
+ * in their native format. A native image would be expanded to true colour by the platform
+ * (a 1 bit page of 10000x14000 pixels takes 17 MB as image data but about 560 MB as native image).
+ * Such images are converted tile by tile when drawn (see {@link #isIndexed()}).<br>
+ * <br>
+ * Very large images are not decoded at all up front; only the tiles that are drawn are decoded
+ * from the file, at the required resolution (see {@link #isTiled()}).<br>
+ * <br>
+ * Large images can first be loaded as low resolution preview (see {@link #getPreviewLevel()}),
+ * which is replaced by a full resolution image later.<br>
+ * <br>
+ * When disposed, a fully decoded image hands its pixels over to the {@link DecodedImageCache}
+ * (see {@link #setCacheKey(DecodedImageCache.Key)}), which then becomes their single owner.
  * 
  * @author Christian Clausner
  *
  */
 public class Image {
+	private Display display;
 	private org.eclipse.swt.graphics.Image imageObject;
+	/** Decoded pixels the native image was created from (<code>null</code> once taken) */
+	private ImageData decodedData;
+	/** Pixels of palette based images (<code>null</code> for images with native image object) */
+	private ImageData indexedData;
+	/** Opened image file for images that are decoded tile by tile (<code>null</code> otherwise) */
+	private ImageSource tiledSource;
+	/** Resolution level of a preview image (1 = 1/2, 2 = 1/4, ...; 0 for full resolution) */
+	private int previewLevel = 0;
+	/** Key for handing the pixels over to the decoded image cache on dispose (<code>null</code> to discard them) */
+	private DecodedImageCache.Key cacheKey = null;
+	private int width;
+	private int height;
+	/** Reduced resolution versions (index 0 = 1/2, 1 = 1/4, ...; empty until calculated) */
+	private org.eclipse.swt.graphics.Image[] levels = new org.eclipse.swt.graphics.Image[0];
+	/** Reduced resolution versions of palette based images (index 0 = 1/2, 1 = 1/4, ...; empty until calculated) */
+	private ImageData[] levelData = new ImageData[0];
+	private boolean disposed = false;
 	
 	/**
 	 * Constructor
@@ -32,18 +71,223 @@ public class Image {
 	 * @param filePath Image file path
 	 */
 	public Image(Display display, String filePath) {
+		this.display = display;
 		imageObject = new org.eclipse.swt.graphics.Image(display, filePath);
+		width = imageObject.getBounds().width;
+		height = imageObject.getBounds().height;
 	}
 
 	/**
-	 * Releases the image resource
+	 * Constructor
+	 * @param display SWT display object
+	 * @param decodedData Decoded image (owned by this object from now on)
+	 */
+	public Image(Display display, ImageData decodedData) {
+		this.display = display;
+		width = decodedData.width;
+		height = decodedData.height;
+		if (isIndexed(decodedData))
+			indexedData = decodedData;
+		else {
+			this.decodedData = decodedData;
+			imageObject = new org.eclipse.swt.graphics.Image(display, decodedData);
+		}
+	}
+	
+	/**
+	 * Constructor for a low resolution preview
+	 * @param display SWT display object
+	 * @param previewData Decoded preview (subsampled by 2^previewLevel)
+	 * @param previewLevel Resolution level of the preview (1 = 1/2, 2 = 1/4, ...)
+	 * @param width Full resolution width
+	 * @param height Full resolution height
+	 */
+	public Image(Display display, ImageData previewData, int previewLevel, int width, int height) {
+		this.display = display;
+		this.previewLevel = previewLevel;
+		this.width = width;
+		this.height = height;
+		imageObject = new org.eclipse.swt.graphics.Image(display, previewData);
+	}
+	
+	/**
+	 * Returns the resolution level of a preview image
+	 * @return 1 = 1/2, 2 = 1/4, ... or 0 if this is the full resolution image 
+	 * 			(the image object then has a smaller size than {@link #getWidth()} x {@link #getHeight()})
+	 */
+	public int getPreviewLevel() {
+		return previewLevel;
+	}
+	
+	/**
+	 * Constructor for an image that is decoded tile by tile
+	 * @param display SWT display object
+	 * @param tiledSource Opened image file (owned by this object from now on)
+	 */
+	public Image(Display display, ImageSource tiledSource) {
+		this.display = display;
+		this.tiledSource = tiledSource;
+		width = tiledSource.getWidth();
+		height = tiledSource.getHeight();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the image is decoded tile by tile when drawn
+	 * (no native image object and no image data, see {@link #getTiledSource()})
+	 */
+	public boolean isTiled() {
+		return tiledSource != null;
+	}
+	
+	/**
+	 * Returns the opened image file of an image that is decoded tile by tile (shared, not to be closed)
+	 * @return Image source or <code>null</code> if the image is not tiled
+	 */
+	public ImageSource getTiledSource() {
+		return tiledSource;
+	}
+	
+	/**
+	 * Checks if the given image data is kept in its native format (palette based, up to 8 bit)
+	 */
+	static boolean isIndexed(ImageData data) {
+		return data.depth <= 8 && !data.palette.isDirect;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the pixels are kept in their palette based format
+	 * (no native image object, see {@link #getIndexedData()})
+	 */
+	public boolean isIndexed() {
+		return indexedData != null;
+	}
+	
+	/**
+	 * Returns the pixels of a palette based image (shared, not to be modified)
+	 * @return Image data or <code>null</code> if the image has a native image object
+	 */
+	public ImageData getIndexedData() {
+		return indexedData;
+	}
+	
+	/**
+	 * Returns the decoded pixels and releases the reference held by this object (can only be taken once).
+	 * For palette based images, the pixel store is returned (shared, not released).
+	 * Pixels that are handed over to the decoded image cache on dispose are kept as well 
+	 * (reading them back from the native image would block the UI thread).
+	 * @return Image data or <code>null</code> if already taken or not available
+	 */
+	public synchronized ImageData takeDecodedData() {
+		if (indexedData != null)
+			return indexedData;
+		ImageData data = decodedData;
+		if (cacheKey == null || data == null || !DecodedImageCache.fits(data.data.length))
+			decodedData = null;
+		return data;
+	}
+
+	/**
+	 * Sets the key under which the pixels are added to the {@link DecodedImageCache} when the image 
+	 * is disposed (only for fully decoded images; not for previews and images decoded tile by tile)
+	 */
+	public synchronized void setCacheKey(DecodedImageCache.Key cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+	
+	/**
+	 * Releases the image resource (the pixels are handed over to the decoded image cache, if a key has been set)
 	 */
 	public void dispose() {
-		imageObject.dispose();
+		if (!disposed && cacheKey != null && previewLevel == 0 && tiledSource == null)
+			addToCache();
+		disposed = true;
+		if (imageObject != null)
+			imageObject.dispose();
+		disposeLevels();
+		if (tiledSource != null)
+			tiledSource.close();
+		synchronized (this) {
+			decodedData = null;
+			indexedData = null;
+		}
+	}
+	
+	/**
+	 * Adds the pixels to the decoded image cache (to be called before disposing)
+	 */
+	private void addToCache() {
+		ImageData data;
+		synchronized (this) {
+			data = indexedData != null ? indexedData : decodedData;
+		}
+		DecodedImageCache.put(cacheKey, data);
+	}
+	
+	/**
+	 * Returns <code>true</code> if the image has been disposed
+	 */
+	public boolean isDisposed() {
+		return disposed;
+	}
+	
+	/**
+	 * Releases the image resource on the UI thread, after all pending UI runnables
+	 * (views that are still showing the image are switched to a new one by such runnables).
+	 */
+	public void disposeLater() {
+		display.asyncExec(new Runnable() {
+			public void run() {
+				dispose();
+			}
+		});
+	}
+	
+	private void disposeLevels() {
+		for (int i=0; i<levels.length; i++)
+			levels[i].dispose();
+		levels = new org.eclipse.swt.graphics.Image[0];
+		levelData = new ImageData[0];
+	}
+	
+	/**
+	 * Sets the reduced resolution versions of this image (to be called from the UI thread)
+	 * @param data Image data (index 0 = 1/2, 1 = 1/4, ...)
+	 * @see ImagePyramidBuilder
+	 */
+	public void setLevels(ImageData[] data) {
+		disposeLevels();
+		if (disposed)
+			return;
+		//Palette based -> keep as image data as well
+		if (isIndexed()) {
+			levelData = data;
+			return;
+		}
+		org.eclipse.swt.graphics.Image[] newLevels = new org.eclipse.swt.graphics.Image[data.length];
+		for (int i=0; i<data.length; i++)
+			newLevels[i] = new org.eclipse.swt.graphics.Image(display, data[i]);
+		levels = newLevels;
+	}
+	
+	/**
+	 * Returns the reduced resolution versions of this image
+	 * @return SWT images (index 0 = 1/2, 1 = 1/4, ...; empty if not available or if the image is palette based)
+	 */
+	public org.eclipse.swt.graphics.Image[] getLevels() {
+		return levels;
+	}
+	
+	/**
+	 * Returns the reduced resolution versions of a palette based image
+	 * @return Image data (index 0 = 1/2, 1 = 1/4, ...; empty if not available or if the image is not palette based)
+	 */
+	public ImageData[] getLevelData() {
+		return levelData;
 	}
 	
 	/**
 	 * Returns the SWT image
+	 * @return Image object or <code>null</code> if the image is palette based (see {@link #isIndexed()})
 	 */
 	public org.eclipse.swt.graphics.Image getImageObject() {
 		return imageObject;
@@ -53,13 +297,13 @@ public class Image {
 	 * Image width in pixels
 	 */
 	public int getWidth() {
-		return imageObject != null ? imageObject.getBounds().width : 0;
+		return width;
 	}
 
 	/**
 	 * Image height in pixels
 	 */
 	public int getHeight() {
-		return imageObject != null ? imageObject.getBounds().height : 0;
+		return height;
 	}
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Pluggable image decoder. The decoders are tried in order of registration
+ * (most recently registered first) until one can open the file.
+ * 
+ * @author agent
+ *
+ */
+public abstract class ImageDecoder {
+
+	private static List<ImageDecoder> decoders = new ArrayList<ImageDecoder>();
+
+	static {
+		//Fallback first (tried last)
+		decoders.add(new SwtImageDecoder());
+		decoders.add(0, new ImageIoDecoder());
+	}
+
+	/**
+	 * Adds a decoder (tried before all decoders registered so far)
+	 */
+	public static synchronized void register(ImageDecoder decoder) {
+		decoders.add(0, decoder);
+	}
+
+	/**
+	 * Opens the given image file with the first decoder that supports it
+	 * @param filePath Image file
+	 * @param task Task that can cancel the opening (can be <code>null</code>)
+	 * @return Opened image
+	 * @throws Exception No decoder could open the file (the exception of the last decoder is thrown)
+	 */
+	public static ImageSource openImage(String filePath, Task task) throws Exception {
+		List<ImageDecoder> candidates;
+		synchronized (ImageDecoder.class) {
+			candidates = new ArrayList<ImageDecoder>(decoders);
+		}
+		Exception lastError = null;
+		for (int i=0; i<candidates.size(); i++) {
+			try {
+				ImageSource source = candidates.get(i).open(filePath, task);
+				if (source != null)
+					return source;
+			} catch (CancellationException exc) {
+				throw exc;
+			} catch (Exception exc) {
+				lastError = exc;
+			}
+		}
+		throw lastError != null ? lastError : new Exception("Unsupported image format: " + filePath);
+	}
+
+	/**
+	 * Opens the given image file (reads the header, if possible)
+	 * @param task Task that can cancel the opening (can be <code>null</code>)
+	 * @return Opened image or <code>null</code> if the format is not supported by this decoder
+	 * @throws Exception Read error
+	 */
+	protected abstract ImageSource open(String filePath, Task task) throws Exception;
+}
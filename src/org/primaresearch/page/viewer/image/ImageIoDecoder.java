@@ -0,0 +1,496 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Decoder using Java Image I/O.<br>
+ * Regions are decoded via source region and subsampling of the image reader, so only the
+ * required TIFF tiles are read. Where the reader supports it, pixels are read into a buffer layout that
+ * SWT can use directly, so there is no second copy of the decoded image. JPEG 2000 is supported if an Image I/O plugin
+ * for it is available (e.g. jai-imageio-jpeg2000), which then reads the matching resolution level.
+ * Previews are read from JPEG 2000 resolution levels, JFIF thumbnails (JPEG) or reduced resolution pages (TIFF).
+ * 
+ * @author agent
+ *
+ */
+public class ImageIoDecoder extends ImageDecoder {
+
+	/** Number of rows (after subsampling) converted at a time, if the image cannot be read into a suitable layout */
+	private static final int BAND_HEIGHT = 512;
+
+	@Override
+	protected ImageSource open(String filePath, Task task) throws Exception {
+		ImageInputStream stream = ImageIO.createImageInputStream(new File(filePath));
+		if (stream == null)
+			return null;
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if (!readers.hasNext()) {
+			stream.close();
+			return null;
+		}
+		ImageReader reader = readers.next();
+		try {
+			//Not seek forward only: previews are read from thumbnails or further pages before the image itself.
+			//Thumbnails are part of the metadata.
+			reader.setInput(stream, false, false);
+			return new ImageIoSource(reader, stream);
+		} catch (Exception exc) {
+			reader.dispose();
+			stream.close();
+			throw exc;
+		}
+	}
+
+	/**
+	 * Opened image file
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class ImageIoSource implements ImageSource {
+		private ImageReader reader;
+		private ImageInputStream stream;
+		private int width;
+		private int height;
+		private int bitsPerPixel;
+		private boolean tiled;
+		/** Reads at reduced resolution skip work (resolution levels) */
+		private boolean multiResolution;
+		/** Further pages can be reduced resolution versions of the first one */
+		private boolean multiPage;
+		/** Image type to read into (can be used by SWT without copying; <code>null</code> if the reader offers none) */
+		private ImageTypeSpecifier destinationType;
+
+		ImageIoSource(ImageReader reader, ImageInputStream stream) throws Exception {
+			this.reader = reader;
+			this.stream = stream;
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+			ImageTypeSpecifier type = reader.getRawImageType(0);
+			bitsPerPixel = type != null ? type.getColorModel().getPixelSize() : 24;
+			//Tiles (TIFF) or resolution levels (JPEG 2000). Strips span the full width, so every tile
+			//in a row would decode the same strips again. Baseline JPEG is always decoded from the top,
+			//so reading regions near the bottom would be slower than reading it once.
+			//The JPEG and TIFF readers decode every pixel even when subsampling (it only saves memory),
+			//JPEG 2000 reads the matching resolution level
+			multiResolution = "jpeg2000".equalsIgnoreCase(reader.getFormatName());
+			multiPage = reader.getFormatName().toLowerCase().startsWith("tif");
+			tiled = reader.isImageTiled(0) || multiResolution;
+			destinationType = getWrappableType(reader);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public long getDecodedSize() {
+			return (long)width * height * Math.max(1, bitsPerPixel) / 8;
+		}
+
+		@Override
+		public boolean supportsRegions() {
+			return tiled;
+		}
+
+		@Override
+		public synchronized ImageData decodePreview(int level, Task task) throws Exception {
+			if (reader == null)
+				throw new IllegalStateException("Image source closed");
+			
+			//Resolution levels
+			if (multiResolution)
+				return decode(null, 1 << level, task);
+			
+			//Embedded thumbnail or reduced resolution page with the width nearest to the requested level
+			int bestThumbnail = -1;
+			int bestPage = -1;
+			double bestDistance = Double.MAX_VALUE;
+			if (reader.readerSupportsThumbnails()) {
+				for (int i=0; i<reader.getNumThumbnails(0); i++) {
+					double distance = getLevelDistance(reader.getThumbnailWidth(0, i), reader.getThumbnailHeight(0, i), level);
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						bestThumbnail = i;
+					}
+				}
+			}
+			if (multiPage) {
+				int pages = reader.getNumImages(true);
+				for (int i=1; i<pages; i++) {
+					double distance = getLevelDistance(reader.getWidth(i), reader.getHeight(i), level);
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						bestPage = i;
+						bestThumbnail = -1;
+					}
+				}
+			}
+			if (bestPage > 0) {
+				BufferedImage image = read(bestPage, reader.getDefaultReadParam(), task);
+				ImageData data = wrap(image);
+				return data != null ? data : convert(image);
+			}
+			if (bestThumbnail >= 0)
+				return convert(reader.readThumbnail(0, bestThumbnail));
+			return null;
+		}
+		
+		/**
+		 * Returns how far a reduced version of the image with the given size is from the requested 
+		 * resolution level (in levels)
+		 * @return Distance or <code>Double.MAX_VALUE</code> if the size is not smaller than the image 
+		 * 			or has a different aspect ratio (e.g. unrelated pages)
+		 */
+		private double getLevelDistance(int reducedWidth, int reducedHeight, int level) {
+			if (reducedWidth <= 0 || reducedHeight <= 0 || reducedWidth >= width || reducedHeight >= height
+					|| Math.abs((double)reducedWidth * height / reducedHeight - width) > width * 0.02)
+				return Double.MAX_VALUE;
+			return Math.abs(Math.log((double)width / reducedWidth) / Math.log(2) - level);
+		}
+
+		@Override
+		public synchronized ImageData decode(Rectangle region, int subsampling, Task task) throws Exception {
+			if (reader == null)
+				throw new IllegalStateException("Image source closed");
+			
+			//Read directly into a layout that SWT image data can use without copying
+			if (destinationType != null) {
+				ImageReadParam param = createReadParam(region, subsampling);
+				param.setDestinationType(destinationType);
+				BufferedImage image = read(0, param, task);
+				ImageData data = wrap(image);
+				return data != null ? data : convert(image);
+			}
+			
+			//Formats that are always decoded from the top -> read once and convert 
+			//(the buffered image is released before the caller creates the native image)
+			if (!reader.isImageTiled(0) && !reader.isRandomAccessEasy(0))
+				return convert(read(0, createReadParam(region, subsampling), task));
+			
+			//Other layouts -> read and convert in bands (only one band exists as buffered image at a time)
+			Rectangle area = region != null ? region : new Rectangle(0, 0, width, height);
+			int step = Math.max(1, subsampling);
+			int bandRows = BAND_HEIGHT * step;
+			ImageData data = null;
+			for (int y=area.y; y<area.y + area.height; y+=bandRows) {
+				Rectangle band = new Rectangle(area.x, y, area.width, Math.min(bandRows, area.y + area.height - y));
+				BufferedImage image = read(0, createReadParam(band, step), task);
+				if (data == null)
+					data = createImageData(image.getColorModel(), (area.width + step - 1) / step, (area.height + step - 1) / step);
+				copyRows(image, data, (y - area.y) / step);
+			}
+			return data;
+		}
+		
+		/**
+		 * Creates read parameters for the given region and subsampling
+		 * @param region Source region (<code>null</code> for the whole image)
+		 */
+		private ImageReadParam createReadParam(Rectangle region, int subsampling) {
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (region != null)
+				param.setSourceRegion(new java.awt.Rectangle(region.x, region.y, region.width, region.height));
+			if (subsampling > 1)
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			return param;
+		}
+		
+		/**
+		 * Reads the image (or a part of it), aborting when the task is cancelled
+		 * @param imageIndex Page (0 for the image itself)
+		 */
+		private BufferedImage read(int imageIndex, ImageReadParam param, Task task) throws Exception {
+			CancelListener listener = null;
+			if (task != null) {
+				listener = new CancelListener(task);
+				reader.addIIOReadProgressListener(listener);
+			}
+			BufferedImage image;
+			try {
+				image = reader.read(imageIndex, param);
+			} finally {
+				if (listener != null)
+					reader.removeIIOReadProgressListener(listener);
+			}
+			if (task != null && task.isCancelled())
+				throw new CancellationException("Image decoding cancelled");
+			return image;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (reader != null) {
+				reader.dispose();
+				reader = null;
+			}
+			try {
+				stream.close();
+			} catch (Exception exc) {
+			}
+		}
+	}
+
+	/**
+	 * Returns the first image type offered by the reader that can be used as SWT image data
+	 * without copying (8 bit RGB/BGR, 8 bit greyscale or palette, packed bilevel/palette)
+	 * @return Type or <code>null</code> if there is none
+	 */
+	private static ImageTypeSpecifier getWrappableType(ImageReader reader) throws Exception {
+		for (Iterator<ImageTypeSpecifier> it = reader.getImageTypes(0); it.hasNext(); ) {
+			ImageTypeSpecifier type = it.next();
+			switch (type.getBufferedImageType()) {
+				case BufferedImage.TYPE_3BYTE_BGR:
+				case BufferedImage.TYPE_BYTE_GRAY:
+				case BufferedImage.TYPE_BYTE_INDEXED:
+				case BufferedImage.TYPE_BYTE_BINARY:
+					return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates SWT image data that uses the pixel buffer of the given image (no copy)
+	 * @return Image data or <code>null</code> if the buffer layout is not supported by SWT
+	 */
+	static ImageData wrap(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Raster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferByte)
+				|| raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return null;
+		DataBufferByte buffer = (DataBufferByte)raster.getDataBuffer();
+		if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0)
+			return null;
+		byte[] bytes = buffer.getData();
+		SampleModel sampleModel = raster.getSampleModel();
+		ColorModel colorModel = image.getColorModel();
+
+		//Packed bilevel or palette (most significant bit first, as in SWT)
+		if (sampleModel instanceof MultiPixelPackedSampleModel) {
+			MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel)sampleModel;
+			int bits = packed.getPixelBitStride();
+			if (!(colorModel instanceof IndexColorModel) || packed.getDataBitOffset() != 0 
+					|| (bits != 1 && bits != 2 && bits != 4) || packed.getScanlineStride() != (width * bits + 7) / 8)
+				return null;
+			return new ImageData(width, height, bits, createPalette((IndexColorModel)colorModel), 1, bytes);
+		}
+		if (!(sampleModel instanceof ComponentSampleModel) || sampleModel.getSampleSize(0) != 8)
+			return null;
+		ComponentSampleModel components = (ComponentSampleModel)sampleModel;
+		int[] offsets = components.getBandOffsets();
+
+		//8 bit palette or greyscale
+		if (raster.getNumBands() == 1 && components.getPixelStride() == 1 && components.getScanlineStride() == width) {
+			if (colorModel instanceof IndexColorModel)
+				return new ImageData(width, height, 8, createPalette((IndexColorModel)colorModel), 1, bytes);
+			if (colorModel.getPixelSize() == 8 && colorModel.getNumColorComponents() == 1)
+				return new ImageData(width, height, 8, createGreyPalette(), 1, bytes);
+			return null;
+		}
+		//24 bit (SWT reads the three bytes as one big endian pixel value)
+		if (raster.getNumBands() == 3 && !colorModel.hasAlpha() && components.getPixelStride() == 3 
+				&& components.getScanlineStride() == width * 3) {
+			if (offsets[0] == 2 && offsets[1] == 1 && offsets[2] == 0) //BGR
+				return new ImageData(width, height, 24, new PaletteData(0xFF, 0xFF00, 0xFF0000), 1, bytes);
+			if (offsets[0] == 0 && offsets[1] == 1 && offsets[2] == 2) //RGB
+				return new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF), 1, bytes);
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a buffered image to SWT image data (see {@link #createImageData(ColorModel, int, int)})
+	 */
+	static ImageData convert(BufferedImage image) {
+		ImageData data = createImageData(image.getColorModel(), image.getWidth(), image.getHeight());
+		copyRows(image, data, 0);
+		return data;
+	}
+
+	/**
+	 * Creates empty SWT image data for images with the given colour model.
+	 * Palette images (including bilevel) with up to 8 bit and greyscale images are kept palette based,
+	 * everything else is converted to 24 bit RGB.
+	 */
+	private static ImageData createImageData(ColorModel colorModel, int width, int height) {
+		//Palette
+		if (colorModel instanceof IndexColorModel && colorModel.getPixelSize() <= 8)
+			return new ImageData(width, height, getSupportedDepth(colorModel.getPixelSize()), createPalette((IndexColorModel)colorModel));
+		//Greyscale
+		if (colorModel.getNumComponents() == 1 && colorModel.getPixelSize() <= 8)
+			return new ImageData(width, height, 8, createGreyPalette());
+		//RGB
+		return new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+	}
+
+	/**
+	 * Copies the pixels of the given image into SWT image data created by {@link #createImageData(ColorModel, int, int)}
+	 * @param targetY First row in the image data
+	 */
+	private static void copyRows(BufferedImage image, ImageData data, int targetY) {
+		int width = Math.min(image.getWidth(), data.width);
+		int height = Math.min(image.getHeight(), data.height - targetY);
+		ColorModel colorModel = image.getColorModel();
+		Raster raster = image.getRaster();
+		int[] row = new int[width];
+
+		//Palette
+		if (colorModel instanceof IndexColorModel && colorModel.getPixelSize() <= 8) {
+			for (int y=0; y<height; y++) {
+				raster.getSamples(0, y, width, 1, 0, row);
+				data.setPixels(0, targetY + y, width, row, 0);
+			}
+		}
+		//Greyscale
+		else if (colorModel.getNumComponents() == 1 && colorModel.getPixelSize() <= 8) {
+			int maxValue = (1 << colorModel.getPixelSize()) - 1;
+			for (int y=0; y<height; y++) {
+				raster.getSamples(0, y, width, 1, 0, row);
+				if (maxValue != 255) { //Scale to 8 bit
+					for (int x=0; x<width; x++)
+						row[x] = row[x] * 255 / maxValue;
+				}
+				data.setPixels(0, targetY + y, width, row, 0);
+			}
+		}
+		//RGB
+		else {
+			for (int y=0; y<height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				data.setPixels(0, targetY + y, width, row, 0);
+			}
+		}
+	}
+
+	/**
+	 * Creates an SWT palette from the given colour model
+	 */
+	private static PaletteData createPalette(IndexColorModel colorModel) {
+		RGB[] colors = new RGB[colorModel.getMapSize()];
+		for (int i=0; i<colors.length; i++)
+			colors[i] = new RGB(colorModel.getRed(i), colorModel.getGreen(i), colorModel.getBlue(i));
+		return new PaletteData(colors);
+	}
+
+	/**
+	 * Creates a palette with 256 grey values (pixel value = brightness)
+	 */
+	private static PaletteData createGreyPalette() {
+		RGB[] colors = new RGB[256];
+		for (int i=0; i<colors.length; i++)
+			colors[i] = new RGB(i, i, i);
+		return new PaletteData(colors);
+	}
+
+	/**
+	 * Returns the nearest palette depth supported by SWT (1, 2, 4 or 8)
+	 */
+	private static int getSupportedDepth(int bitsPerPixel) {
+		if (bitsPerPixel <= 1)
+			return 1;
+		if (bitsPerPixel <= 2)
+			return 2;
+		if (bitsPerPixel <= 4)
+			return 4;
+		return 8;
+	}
+
+	/**
+	 * Aborts reading when the task has been cancelled
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class CancelListener implements IIOReadProgressListener {
+		private Task task;
+
+		CancelListener(Task task) {
+			this.task = task;
+		}
+
+		@Override
+		public void imageProgress(ImageReader source, float percentageDone) {
+			if (task.isCancelled())
+				source.abort();
+		}
+
+		@Override
+		public void sequenceStarted(ImageReader source, int minIndex) {
+		}
+
+		@Override
+		public void sequenceComplete(ImageReader source) {
+		}
+
+		@Override
+		public void imageStarted(ImageReader source, int imageIndex) {
+		}
+
+		@Override
+		public void imageComplete(ImageReader source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+		}
+
+		@Override
+		public void thumbnailProgress(ImageReader source, float percentageDone) {
+		}
+
+		@Override
+		public void thumbnailComplete(ImageReader source) {
+		}
+
+		@Override
+		public void readAborted(ImageReader source) {
+		}
+	}
+}
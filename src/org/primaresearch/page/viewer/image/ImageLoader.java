@@ -15,19 +15,42 @@
  */
 package org.primaresearch.page.viewer.image;
 
+import java.io.File;
+
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Display;
 import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.Timings;
+import org.primaresearch.page.viewer.extra.jfr.ImageDecodeEvent;
 
 /**
- * Image loading task
+ * Image loading task.<br>
+ * Large images that can be decoded in parts (see {@link ImageSource#supportsRegions()}) are only opened;
+ * their tiles are decoded when displayed. Other large images with a cheap low resolution version
+ * (see {@link ImageSource#decodePreview(int, Task)}: JPEG 2000, JPEG with JFIF thumbnail, TIFF with reduced 
+ * resolution pages) are loaded as preview first (the full resolution is then decoded by a {@link FullResolutionLoader}).
+ * Other JPEG and TIFF files get no preview.
+ * All other images are decoded completely. Their pixels go to the {@link DecodedImageCache}
+ * when the image is disposed; the cache is checked before the file is opened.
  * 
  * @author Christian Clausner
  *
  */
 public class ImageLoader extends Task {
+	/** Decoded size (in bytes) from which images are decoded tile by tile, if supported */
+	public static final long TILED_DECODING_THRESHOLD = 256L << 20;
+	/** Decoded size (in bytes) from which a low resolution preview is loaded first, if supported */
+	public static final long PREVIEW_THRESHOLD = 32L << 20;
+	/** Requested resolution level of the preview (1/8) */
+	public static final int PREVIEW_LEVEL = 3;
+	/** Lowest resolution level accepted as preview (1/32, e.g. a thumbnail) */
+	public static final int MAX_PREVIEW_LEVEL = 5;
+	
 	private Display display;
 	private String filePath;
 	private Image image = null;
+	private volatile ImageSource remainingSource = null;
+	private DecodedImageCache.Key cacheKey = null;
 
 	/**
 	 * Constructor
@@ -37,15 +60,99 @@ public class ImageLoader extends Task {
 	public ImageLoader(Display display, String filePath) {
 		this.display = display;
 		this.filePath = filePath;
+		setPriority(PRIORITY_HIGH);
 	}
 
 	@Override
-	protected boolean doRun() {
-		image = new Image(display, filePath);
-		image.getImageObject().getImageData(); //Triggers loading
+	protected boolean doRun() throws Exception {
+		long start = Timings.start();
+		ImageDecodeEvent event = new ImageDecodeEvent();
+		event.begin();
+		ImageData data = null;
+		
+		//Decoded before (e.g. for another document with the same image)?
+		cacheKey = DecodedImageCache.createKey(filePath);
+		data = DecodedImageCache.take(cacheKey);
+		if (data != null) {
+			image = new Image(display, data); //Takes over the cached data
+			image.setCacheKey(cacheKey);
+			Timings.stop(Timings.IMAGE_LOAD, start);
+			commitEvent(event, data, true);
+			return true;
+		}
+		
+		ImageSource source = ImageDecoder.openImage(filePath, this);
+		try {
+			checkCancelled();
+			if (source.supportsRegions() && source.getDecodedSize() >= TILED_DECODING_THRESHOLD) {
+				image = new Image(display, source); //Takes over the source
+				source = null;
+			} else {
+				ImageData preview = null;
+				if (source.getDecodedSize() >= PREVIEW_THRESHOLD)
+					preview = source.decodePreview(PREVIEW_LEVEL, this);
+				checkCancelled();
+				int previewLevel = preview != null ? getPreviewLevel(preview, source.getWidth()) : 0;
+				if (previewLevel > 0) {
+					data = scalePreview(preview, previewLevel, source.getWidth(), source.getHeight());
+					image = new Image(display, data, previewLevel, source.getWidth(), source.getHeight());
+					remainingSource = source; //Kept open for the full resolution
+					source = null;
+				} else {
+					data = source.decode(null, 1, this);
+					checkCancelled();
+					image = new Image(display, data); //Takes over the decoded data
+					image.setCacheKey(cacheKey);
+				}
+			}
+		} finally {
+			if (source != null)
+				source.close();
+		}
+		Timings.stop(Timings.IMAGE_LOAD, start);
+		commitEvent(event, data, false);
 		return true;
 	}
 	
+	/**
+	 * Returns the resolution level nearest to the size of the given preview
+	 * @param width Full resolution width
+	 * @return Level or 0 if the preview is too small or too large to be used
+	 */
+	private static int getPreviewLevel(ImageData preview, int width) {
+		int level = (int)Math.round(Math.log((double)width / preview.width) / Math.log(2));
+		return level >= 1 && level <= MAX_PREVIEW_LEVEL ? level : 0;
+	}
+	
+	/**
+	 * Scales the preview to the exact size of the given resolution level, if necessary
+	 * (thumbnails and reduced resolution pages can be rounded differently or lie between two levels)
+	 */
+	private static ImageData scalePreview(ImageData preview, int level, int width, int height) {
+		int levelWidth = (width + (1 << level) - 1) >> level;
+		int levelHeight = (height + (1 << level) - 1) >> level;
+		if (preview.width == levelWidth && preview.height == levelHeight)
+			return preview;
+		return preview.scaledTo(levelWidth, levelHeight);
+	}
+	
+	/**
+	 * Records the image loading for Flight Recorder (if enabled)
+	 * @param data Decoded pixels (<code>null</code> for images decoded tile by tile)
+	 * @param cached <code>true</code> if the pixels came from the {@link DecodedImageCache}
+	 */
+	private void commitEvent(ImageDecodeEvent event, ImageData data, boolean cached) {
+		if (!event.shouldCommit())
+			return;
+		event.imagePath = filePath;
+		event.fileSize = new File(filePath).length();
+		event.decodedSize = data != null && data.data != null ? data.data.length : 0;
+		event.width = image.getWidth();
+		event.height = image.getHeight();
+		event.cached = cached;
+		event.commit();
+	}
+	
 	/**
 	 * Returns the loaded image
 	 * @return
@@ -53,4 +160,22 @@ public class ImageLoader extends Task {
 	public Image getImage() {
 		return image;
 	}
+	
+	/**
+	 * Returns the key of the image file in the {@link DecodedImageCache}
+	 * @return Key or <code>null</code> if the image cannot be cached
+	 */
+	public DecodedImageCache.Key getCacheKey() {
+		return cacheKey;
+	}
+	
+	/**
+	 * Takes over the opened image file if only a preview has been loaded (see {@link Image#getPreviewLevel()})
+	 * @return Image source (to be closed by the caller) or <code>null</code>
+	 */
+	public ImageSource takeRemainingSource() {
+		ImageSource source = remainingSource;
+		remainingSource = null;
+		return source;
+	}
 }
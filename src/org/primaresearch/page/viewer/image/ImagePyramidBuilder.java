@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Task for calculating reduced resolution versions of a page image (1/2, 1/4, 1/8).<br>
+ * Each level is calculated from the previous one by averaging 2x2 pixel blocks.
+ * Levels of bilevel and greyscale images are 8 bit greyscale, all others 24 bit RGB.
+ * The result is image data only; the SWT images are to be created on the UI thread
+ * (see {@link Image#setLevels(ImageData[])}).
+ * 
+ * @author agent
+ *
+ */
+public class ImagePyramidBuilder extends Task {
+
+	/** Number of reduced resolution levels */
+	public static final int LEVELS = 3;
+
+	private Image image;
+	private ImageData[] levels = null;
+
+	/**
+	 * Constructor
+	 * @param image Full resolution image
+	 */
+	public ImagePyramidBuilder(Image image) {
+		this.image = image;
+		setPriority(PRIORITY_LOW);
+	}
+
+	@Override
+	protected boolean doRun() {
+		//Use the decoded pixels from loading (avoids reading the native image back)
+		ImageData data = image.takeDecodedData();
+		if (data == null && image.getImageObject() != null)
+			data = image.getImageObject().getImageData();
+		if (data == null) //Tiled image (levels are decoded directly)
+			return false;
+		ImageData[] result = new ImageData[LEVELS];
+		for (int i=0; i<LEVELS; i++) {
+			if (data.width < 2 || data.height < 2)
+				return false;
+			checkCancelled();
+			data = downscale(data);
+			result[i] = data;
+		}
+		levels = result;
+		return true;
+	}
+
+	/**
+	 * Returns the image the pyramid was calculated for
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the reduced resolution levels
+	 * @return Image data (index 0 = 1/2, 1 = 1/4, ...) or <code>null</code> if the task failed
+	 */
+	public ImageData[] getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Halves the resolution of the given image (8 bit greyscale result for greyscale palettes, 24 bit RGB otherwise)
+	 */
+	static ImageData downscale(ImageData source) {
+		int width = (source.width + 1) / 2;
+		int height = (source.height + 1) / 2;
+		int[] lookup = createLookupTable(source.palette, source.depth);
+		boolean grey = isGreyscale(lookup);
+		ImageData target = grey ? new ImageData(width, height, 8, createGreyPalette())
+								: new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+
+		int[] row1 = new int[source.width];
+		int[] row2 = new int[source.width];
+		int[] targetRow = new int[width];
+
+		for (int y=0; y<height; y++) {
+			source.getPixels(0, y*2, source.width, row1, 0);
+			if (y*2+1 < source.height)
+				source.getPixels(0, y*2+1, source.width, row2, 0);
+			else
+				System.arraycopy(row1, 0, row2, 0, source.width);
+
+			for (int x=0; x<width; x++) {
+				int x1 = x*2;
+				int x2 = Math.min(x1+1, source.width-1);
+				int p1 = toRgb(row1[x1], source.palette, lookup);
+				int p2 = toRgb(row1[x2], source.palette, lookup);
+				int p3 = toRgb(row2[x1], source.palette, lookup);
+				int p4 = toRgb(row2[x2], source.palette, lookup);
+				int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF) + 2) >> 2;
+				int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF) + 2) >> 2;
+				int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+				targetRow[x] = grey ? r : (r << 16) | (g << 8) | b;
+			}
+			target.setPixels(0, y, width, targetRow, 0);
+		}
+		return target;
+	}
+
+	/**
+	 * Creates a table with the RGB values of an indexed palette
+	 * @return Table (pixel value -> RGB) or <code>null</code> for direct palettes
+	 */
+	private static int[] createLookupTable(PaletteData palette, int depth) {
+		if (palette.isDirect)
+			return null;
+		int[] lookup = new int[1 << Math.min(depth, 16)];
+		RGB[] colors = palette.colors;
+		for (int i=0; i<lookup.length && colors != null && i<colors.length; i++)
+			lookup[i] = (colors[i].red << 16) | (colors[i].green << 8) | colors[i].blue;
+		return lookup;
+	}
+
+	/**
+	 * Checks if all entries of the given lookup table are grey (r = g = b)
+	 * @param lookup Table from {@link #createLookupTable(PaletteData, int)} (<code>null</code> for direct palettes)
+	 */
+	private static boolean isGreyscale(int[] lookup) {
+		if (lookup == null)
+			return false;
+		for (int i=0; i<lookup.length; i++) {
+			int r = (lookup[i] >> 16) & 0xFF;
+			if (r != ((lookup[i] >> 8) & 0xFF) || r != (lookup[i] & 0xFF))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a palette with 256 grey values (pixel value = brightness)
+	 */
+	private static PaletteData createGreyPalette() {
+		RGB[] colors = new RGB[256];
+		for (int i=0; i<colors.length; i++)
+			colors[i] = new RGB(i, i, i);
+		return new PaletteData(colors);
+	}
+
+	/**
+	 * Converts a pixel value to packed RGB (0xRRGGBB)
+	 */
+	private static int toRgb(int pixel, PaletteData palette, int[] lookup) {
+		if (lookup != null)
+			return pixel >= 0 && pixel < lookup.length ? lookup[pixel] : 0;
+		int r = pixel & palette.redMask;
+		r = (palette.redShift < 0) ? r >>> -palette.redShift : r << palette.redShift;
+		int g = pixel & palette.greenMask;
+		g = (palette.greenShift < 0) ? g >>> -palette.greenShift : g << palette.greenShift;
+		int b = pixel & palette.blueMask;
+		b = (palette.blueShift < 0) ? b >>> -palette.blueShift : b << palette.blueShift;
+		return ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+	}
+}
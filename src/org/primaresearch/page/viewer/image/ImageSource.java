@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * An opened image file that can be decoded in parts (see {@link ImageDecoder}).
+ * 
+ * @author agent
+ *
+ */
+public interface ImageSource {
+
+	/**
+	 * Image width in pixels (full resolution)
+	 */
+	public int getWidth();
+
+	/**
+	 * Image height in pixels (full resolution)
+	 */
+	public int getHeight();
+
+	/**
+	 * Returns the (estimated) memory size of the fully decoded image in bytes
+	 */
+	public long getDecodedSize();
+
+	/**
+	 * Returns <code>true</code> if regions can be decoded without decoding the whole image
+	 * (e.g. TIFF tiles and strips, JPEG rows, JPEG 2000 resolution levels)
+	 */
+	public boolean supportsRegions();
+
+	/**
+	 * Decodes a low resolution version of the whole image, if the file offers a cheap way to do so
+	 * (JPEG 2000 resolution levels, embedded thumbnails, reduced resolution pages of TIFF files).<br>
+	 * Thumbnails and reduced resolution pages have a fixed size, the one nearest to the requested 
+	 * resolution is returned. Files without any of these return <code>null</code> (a subsampled decode of 
+	 * a JPEG or TIFF file decodes every pixel and is not faster than a full decode).
+	 * @param level Requested resolution level (1 = 1/2, 2 = 1/4, ...)
+	 * @param task Task that can cancel the decoding (can be <code>null</code>)
+	 * @return Image data with less than full resolution and the same aspect ratio or <code>null</code>
+	 * @throws Exception Decoding error or CancellationException
+	 */
+	public ImageData decodePreview(int level, Task task) throws Exception;
+
+	/**
+	 * Decodes a part of the image
+	 * @param region Area in full resolution pixel coordinates (<code>null</code> for the whole image)
+	 * @param subsampling Only every n-th column and row is decoded (1 for full resolution)
+	 * @param task Task that can cancel the decoding (can be <code>null</code>)
+	 * @return Image data with a size of about region size / subsampling (bilevel, greyscale and 
+	 * 			palette images keep their format where possible)
+	 * @throws Exception Decoding error or CancellationException
+	 */
+	public ImageData decode(Rectangle region, int subsampling, Task task) throws Exception;
+
+	/**
+	 * Releases the file and all decoder resources
+	 */
+	public void close();
+}
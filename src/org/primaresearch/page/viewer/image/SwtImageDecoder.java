@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.extra.CancellableInputStream;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Fallback decoder using the SWT image loader.
+ * Always decodes the whole image (when opening), regions are cut from the decoded data.
+ * 
+ * @author agent
+ *
+ */
+public class SwtImageDecoder extends ImageDecoder {
+
+	@Override
+	protected ImageSource open(String filePath, Task task) throws Exception {
+		//Decode from a stream that gives up when the task is cancelled
+		InputStream stream = new BufferedInputStream(new FileInputStream(filePath));
+		if (task != null)
+			stream = new CancellableInputStream(stream, task);
+		try {
+			return new SwtImageSource(new org.eclipse.swt.graphics.ImageLoader().load(stream)[0]);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Fully decoded image
+	 * 
+	 * @author agent
+	 *
+	 */
+	private static class SwtImageSource implements ImageSource {
+		private ImageData data;
+
+		SwtImageSource(ImageData data) {
+			this.data = data;
+		}
+
+		@Override
+		public int getWidth() {
+			return data.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return data.height;
+		}
+
+		@Override
+		public long getDecodedSize() {
+			return data.data != null ? data.data.length : 0;
+		}
+
+		@Override
+		public boolean supportsRegions() {
+			return false;
+		}
+
+		@Override
+		public ImageData decodePreview(int level, Task task) {
+			return null;
+		}
+
+		@Override
+		public ImageData decode(Rectangle region, int subsampling, Task task) {
+			//Whole image -> hand over the decoded data
+			if ((region == null || region.equals(new Rectangle(0, 0, data.width, data.height))) && subsampling <= 1)
+				return data;
+			
+			if (region == null)
+				region = new Rectangle(0, 0, data.width, data.height);
+			int step = Math.max(1, subsampling);
+			int width = Math.max(1, (region.width + step - 1) / step);
+			int height = Math.max(1, (region.height + step - 1) / step);
+			ImageData result = new ImageData(width, height, data.depth, data.palette);
+			int[] sourceRow = new int[region.width];
+			int[] targetRow = new int[width];
+			for (int y=0; y<height; y++) {
+				data.getPixels(region.x, region.y + y * step, region.width, sourceRow, 0);
+				for (int x=0; x<width; x++)
+					targetRow[x] = sourceRow[x * step];
+				result.setPixels(0, y, width, targetRow, 0);
+			}
+			return result;
+		}
+
+		@Override
+		public void close() {
+			data = null;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.image;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Task for decoding a tile of an image that is decoded tile by tile (see {@link Image#isTiled()}).
+ * The result is image data only; the tile image is to be created on the UI thread.
+ * 
+ * @author agent
+ *
+ */
+public class TileLoader extends Task {
+
+	private ImageSource source;
+	private Rectangle region;
+	private int subsampling;
+	private ImageData data = null;
+
+	/**
+	 * Constructor
+	 * @param source Opened image file (not owned by the task)
+	 * @param region Tile area in page coordinates
+	 * @param subsampling Take every n-th pixel (1 = full resolution)
+	 */
+	public TileLoader(ImageSource source, Rectangle region, int subsampling) {
+		this.source = source;
+		this.region = region;
+		this.subsampling = subsampling;
+	}
+
+	@Override
+	protected boolean doRun() throws Exception {
+		data = source.decode(region, subsampling, this);
+		return data != null;
+	}
+
+	/**
+	 * Returns the image file the tile is decoded from
+	 */
+	public ImageSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the decoded tile
+	 * @return Image data or <code>null</code> if the task failed
+	 */
+	public ImageData getData() {
+		return data;
+	}
+}
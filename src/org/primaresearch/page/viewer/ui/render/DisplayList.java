@@ -0,0 +1,287 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.ui.render;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.dla.GeometryStore;
+import org.primaresearch.page.viewer.dla.SpatialIndex;
+
+/**
+ * Immutable list of drawing commands (retained mode rendering).<br>
+ * A display list is compiled once per page content (see {@link Builder}) and can then be
+ * replayed for any area of the page. The commands are replayed in their original order
+ * (so the result is the same as drawing directly); the drawing state (colour, alpha, line width)
+ * is only set on the graphics context when it differs from the previous command.
+ * Polygons are not copied but referenced in the geometry store of the page.<br>
+ * The commands are replayed with Java2D, so a display list can be replayed from any thread
+ * (see {@link LayerTileRasterizer}).
+ * 
+ * @author agent
+ *
+ */
+public class DisplayList {
+
+	//Command types
+	private static final int FILL_POLYGON 	= 0;
+	private static final int FILL_TRIANGLE 	= 1;
+	private static final int DRAW_POLYGON 	= 2;
+	private static final int DRAW_POLYLINE 	= 3;
+	private static final int DRAW_LINE 		= 4;
+	private static final int FILL_OVAL 		= 5;
+	private static final int DRAW_OVAL 		= 6;
+
+	/** Number of arguments per command */
+	private static final int ARGS = 6;
+
+	private GeometryStore geometry;
+	private int[] types;
+	private int[] states;
+	private int[] args;
+	/** Colour (including alpha) per drawing state */
+	private java.awt.Color[] stateColors;
+	private BasicStroke[] stateStrokes;
+	private SpatialIndex index;
+
+	private DisplayList() {
+	}
+
+	/**
+	 * Number of commands
+	 */
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * Executes all commands that affect the given area
+	 * @param g Graphics context (page coordinates)
+	 * @param area Area in page coordinates
+	 * @return Indices of the executed commands (in execution order)
+	 */
+	public int[] replay(Graphics2D g, Rectangle area) {
+		int[] commands = index.query(area.x, area.y, area.x + area.width, area.y + area.height);
+		Polygon polygon = new Polygon();
+		int currentState = -1;
+		for (int i=0; i<commands.length; i++) {
+			int c = commands[i];
+
+			//Drawing state
+			if (states[c] != currentState) {
+				currentState = states[c];
+				g.setColor(stateColors[currentState]);
+				g.setStroke(stateStrokes[currentState]);
+			}
+
+			int a = c * ARGS;
+			switch (types[c]) {
+				case FILL_POLYGON: 	g.fillPolygon(getPolygon(args[a], polygon)); break;
+				case DRAW_POLYGON: 	g.drawPolygon(getPolygon(args[a], polygon)); break;
+				case DRAW_POLYLINE: getPolygon(args[a], polygon);
+									g.drawPolyline(polygon.xpoints, polygon.ypoints, polygon.npoints); break;
+				case FILL_TRIANGLE: g.fillPolygon(new int[] { args[a], args[a+2], args[a+4] }, 
+													new int[] { args[a+1], args[a+3], args[a+5] }, 3); break;
+				case DRAW_LINE: 	g.drawLine(args[a], args[a+1], args[a+2], args[a+3]); break;
+				case FILL_OVAL: 	g.fillOval(args[a], args[a+1], args[a+2], args[a+3]); break;
+				case DRAW_OVAL: 	g.drawOval(args[a], args[a+1], args[a+2], args[a+3]); break;
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * Sets the points of the given (reused) polygon to the specified polygon of the geometry store
+	 */
+	private Polygon getPolygon(int id, Polygon polygon) {
+		int[] coords = geometry.getCoordinates();
+		int offset = geometry.getOffset(id);
+		int n = geometry.getPointCount(id);
+		polygon.reset();
+		for (int i=0; i<n; i++)
+			polygon.addPoint(coords[offset + i*2], coords[offset + i*2 + 1]);
+		return polygon;
+	}
+
+	/**
+	 * Display list compiler with an interface similar to a graphics context.
+	 * Can be used outside the UI thread.
+	 * 
+	 * @author agent
+	 *
+	 */
+	public static class Builder {
+		private GeometryStore geometry;
+		private int count = 0;
+		private int[] types = new int[64];
+		private int[] states = new int[64];
+		private int[] args = new int[64 * ARGS];
+		private int[] boxes = new int[64 * 4];
+
+		private Color color = null;
+		private int alpha = 255;
+		private int lineWidth = 1;
+		private int currentState = -1;
+		private List<Color> stateColors = new ArrayList<Color>();
+		private List<Integer> stateAlphas = new ArrayList<Integer>();
+		private List<Integer> stateLineWidths = new ArrayList<Integer>();
+
+		/**
+		 * Constructor
+		 * @param geometry Geometry store containing the polygons referenced by the commands
+		 */
+		public Builder(GeometryStore geometry) {
+			this.geometry = geometry;
+		}
+
+		/** Sets the colour for drawing and filling */
+		public void setColor(Color color) {
+			if (this.color != color)
+				currentState = -1;
+			this.color = color;
+		}
+
+		/** Sets the alpha value (0..255) */
+		public void setAlpha(int alpha) {
+			if (this.alpha != alpha)
+				currentState = -1;
+			this.alpha = alpha;
+		}
+
+		/** Sets the line width */
+		public void setLineWidth(int lineWidth) {
+			if (this.lineWidth != lineWidth)
+				currentState = -1;
+			this.lineWidth = lineWidth;
+		}
+
+		/** Returns the current line width */
+		public int getLineWidth() {
+			return lineWidth;
+		}
+
+		/** Fills the specified polygon of the geometry store */
+		public void fillPolygon(int id) {
+			add(FILL_POLYGON, id, 0, 0, 0, 0, 0, geometry.getLeft(id), geometry.getTop(id), geometry.getRight(id), geometry.getBottom(id));
+		}
+
+		/** Draws the outline of the specified polygon of the geometry store */
+		public void drawPolygon(int id) {
+			add(DRAW_POLYGON, id, 0, 0, 0, 0, 0, geometry.getLeft(id), geometry.getTop(id), geometry.getRight(id), geometry.getBottom(id));
+		}
+
+		/** Draws the specified line string of the geometry store */
+		public void drawPolyline(int id) {
+			add(DRAW_POLYLINE, id, 0, 0, 0, 0, 0, geometry.getLeft(id), geometry.getTop(id), geometry.getRight(id), geometry.getBottom(id));
+		}
+
+		/** Fills the triangle defined by the given points (x1, y1, x2, y2, x3, y3) */
+		public void fillTriangle(int[] points) {
+			add(FILL_TRIANGLE, points[0], points[1], points[2], points[3], points[4], points[5],
+					Math.min(points[0], Math.min(points[2], points[4])), Math.min(points[1], Math.min(points[3], points[5])),
+					Math.max(points[0], Math.max(points[2], points[4])), Math.max(points[1], Math.max(points[3], points[5])));
+		}
+
+		/** Draws a line */
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			add(DRAW_LINE, x1, y1, x2, y2, 0, 0, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+		}
+
+		/** Fills an oval within the given rectangle */
+		public void fillOval(int x, int y, int width, int height) {
+			add(FILL_OVAL, x, y, width, height, 0, 0, x, y, x + width, y + height);
+		}
+
+		/** Draws an oval within the given rectangle */
+		public void drawOval(int x, int y, int width, int height) {
+			add(DRAW_OVAL, x, y, width, height, 0, 0, x, y, x + width, y + height);
+		}
+
+		/**
+		 * Adds a command
+		 */
+		private void add(int type, int a1, int a2, int a3, int a4, int a5, int a6, int left, int top, int right, int bottom) {
+			if (count == types.length) {
+				types = Arrays.copyOf(types, count * 2);
+				states = Arrays.copyOf(states, count * 2);
+				args = Arrays.copyOf(args, count * 2 * ARGS);
+				boxes = Arrays.copyOf(boxes, count * 2 * 4);
+			}
+			types[count] = type;
+			states[count] = getState();
+			int a = count * ARGS;
+			args[a] = a1;
+			args[a+1] = a2;
+			args[a+2] = a3;
+			args[a+3] = a4;
+			args[a+4] = a5;
+			args[a+5] = a6;
+
+			//Bounding box (including line width)
+			int margin = lineWidth + 1;
+			boxes[count*4] = left - margin;
+			boxes[count*4+1] = top - margin;
+			boxes[count*4+2] = right + margin;
+			boxes[count*4+3] = bottom + margin;
+			count++;
+		}
+
+		/**
+		 * Returns the ID of the current drawing state (creates a new state if necessary)
+		 */
+		private int getState() {
+			if (currentState >= 0)
+				return currentState;
+			for (int i=0; i<stateColors.size(); i++) {
+				if (stateColors.get(i) == color && stateAlphas.get(i) == alpha && stateLineWidths.get(i) == lineWidth) {
+					currentState = i;
+					return i;
+				}
+			}
+			stateColors.add(color);
+			stateAlphas.add(alpha);
+			stateLineWidths.add(lineWidth);
+			currentState = stateColors.size() - 1;
+			return currentState;
+		}
+
+		/**
+		 * Creates the display list (commands in the order they were added)
+		 */
+		public DisplayList build() {
+			DisplayList list = new DisplayList();
+			list.geometry = geometry;
+			list.types = Arrays.copyOf(types, count);
+			list.states = Arrays.copyOf(states, count);
+			list.args = Arrays.copyOf(args, count * ARGS);
+			list.stateColors = new java.awt.Color[stateColors.size()];
+			list.stateStrokes = new BasicStroke[stateColors.size()];
+			for (int i=0; i<stateColors.size(); i++) {
+				Color color = stateColors.get(i);
+				list.stateColors[i] = new java.awt.Color(color.getRed(), color.getGreen(), color.getBlue(), stateAlphas.get(i));
+				list.stateStrokes[i] = new BasicStroke(stateLineWidths.get(i), BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
+			}
+			list.index = new SpatialIndex(Arrays.copyOf(boxes, count * 4), count);
+			return list;
+		}
+	}
+}
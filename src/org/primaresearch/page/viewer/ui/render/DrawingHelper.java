@@ -70,6 +70,29 @@ public class DrawingHelper {
 		gc.setLineWidth(w);
 	}
 	
+	/**
+	 * Adds commands for the specified polygon of the geometry store (filled) to the given display list
+	 */
+	public static void drawPolygon(DisplayList.Builder list, Color color, int id) {
+		list.setColor(color);
+		list.setAlpha(30);
+		list.fillPolygon(id);
+		list.setAlpha(150);
+		list.drawPolygon(id);
+	}
+	
+	/**
+	 * Adds commands for the specified line string of the geometry store to the given display list
+	 */
+	public static void drawMultiline(DisplayList.Builder list, Color color, int id) {
+		list.setColor(color);
+		list.setAlpha(150);
+		int w = list.getLineWidth();
+		list.setLineWidth(w * 2);
+		list.drawPolyline(id);
+		list.setLineWidth(w);
+	}
+	
 	/**
 	 * Draws a line with arrow end
 	 */
@@ -85,8 +108,54 @@ public class DrawingHelper {
 		if (from == null || to == null)
 			return;
 
-		Point base = new Point();
 		int[] aptPoly = new int[6];
+		Point base = calculateArrowHead(from, to, arrow, aptPoly);
+
+		// draw we're fillin'...
+		if(arrow.fill) {
+			gc.drawLine(from.x, from.y, aptPoly[0], aptPoly[1]);
+			gc.fillPolygon(aptPoly);
+		}
+		// ... or even jes chillin'...
+		else {
+			gc.drawLine(from.x, from.y, base.x, base.y);
+			gc.drawLine(base.x, base.y, aptPoly[2], aptPoly[3]);
+			gc.drawLine(aptPoly[2], aptPoly[3], aptPoly[0], aptPoly[1]);
+			gc.drawLine(aptPoly[0], aptPoly[1], aptPoly[4], aptPoly[5]);
+			gc.drawLine(aptPoly[4], aptPoly[5], base.x, base.y);
+		}
+	}
+	
+	/**
+	 * Adds commands for a line with arrow end to the given display list
+	 */
+	public static void drawArrow(DisplayList.Builder list, Point from, Point to, ArrowShape arrow) {
+		if (from == null || to == null)
+			return;
+
+		int[] aptPoly = new int[6];
+		Point base = calculateArrowHead(from, to, arrow, aptPoly);
+
+		if(arrow.fill) {
+			list.drawLine(from.x, from.y, aptPoly[0], aptPoly[1]);
+			list.fillTriangle(aptPoly);
+		}
+		else {
+			list.drawLine(from.x, from.y, base.x, base.y);
+			list.drawLine(base.x, base.y, aptPoly[2], aptPoly[3]);
+			list.drawLine(aptPoly[2], aptPoly[3], aptPoly[0], aptPoly[1]);
+			list.drawLine(aptPoly[0], aptPoly[1], aptPoly[4], aptPoly[5]);
+			list.drawLine(aptPoly[4], aptPoly[5], base.x, base.y);
+		}
+	}
+	
+	/**
+	 * Calculates the arrow head (tip and both sides)
+	 * @param aptPoly Output array for the three points of the head (tip first)
+	 * @return Base point of the arrow head
+	 */
+	private static Point calculateArrowHead(Point from, Point to, ArrowShape arrow, int[] aptPoly) {
+		Point base = new Point();
 		double[] vecLine = new double[2];
 		double[] vecLeft = new double[2];
 		double length;
@@ -119,20 +188,8 @@ public class DrawingHelper {
 		aptPoly[3] = (int) (base.y + th * vecLeft[1]);
 		aptPoly[4] = (int) (base.x + -th * vecLeft[0]);
 		aptPoly[5] = (int) (base.y + -th * vecLeft[1]);
-
-		// draw we're fillin'...
-		if(arrow.fill) {
-			gc.drawLine(from.x, from.y, aptPoly[0], aptPoly[1]);
-			gc.fillPolygon(aptPoly);
-		}
-		// ... or even jes chillin'...
-		else {
-			gc.drawLine(from.x, from.y, base.x, base.y);
-			gc.drawLine(base.x, base.y, aptPoly[2], aptPoly[3]);
-			gc.drawLine(aptPoly[2], aptPoly[3], aptPoly[0], aptPoly[1]);
-			gc.drawLine(aptPoly[0], aptPoly[1], aptPoly[4], aptPoly[5]);
-			gc.drawLine(aptPoly[4], aptPoly[5], base.x, base.y);
-		}
+		
+		return base;
 	}
 	
 	/**
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.ui.render;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.primaresearch.page.viewer.extra.Task;
+
+/**
+ * Task for rasterising overlay layers into a transparent tile (see {@link TileRenderer}).<br>
+ * The layers are drawn with Java2D into an image with alpha channel, which works the same on all
+ * platforms and does not need the UI thread. The result is image data with alpha values;
+ * the tile image is to be created on the UI thread.
+ *
+ * @author agent
+ *
+ */
+public class LayerTileRasterizer extends Task {
+
+	private TileRenderer.OverlayPainter painter;
+	private int[] layers;
+	private DisplayList[] displayLists;
+	private Rectangle pageRect;
+	private int level;
+	private int width;
+	private int height;
+	private boolean draft;
+	private ImageData data = null;
+
+	/**
+	 * Constructor
+	 * @param painter Painter for the layers (called in the worker thread)
+	 * @param layers Layer IDs in drawing order
+	 * @param displayLists Display lists of the layers (same order)
+	 * @param pageRect Tile area in page coordinates
+	 * @param level Resolution level of the tile (0 = full resolution, 1 = half, ...)
+	 * @param width Tile width in pixels
+	 * @param height Tile height in pixels
+	 * @param draft Render without antialiasing
+	 */
+	public LayerTileRasterizer(TileRenderer.OverlayPainter painter, int[] layers, DisplayList[] displayLists,
+								Rectangle pageRect, int level, int width, int height, boolean draft) {
+		this.painter = painter;
+		this.layers = layers;
+		this.displayLists = displayLists;
+		this.pageRect = pageRect;
+		this.level = level;
+		this.width = width;
+		this.height = height;
+		this.draft = draft;
+	}
+
+	@Override
+	protected boolean doRun() throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					draft ? RenderingHints.VALUE_ANTIALIAS_OFF : RenderingHints.VALUE_ANTIALIAS_ON);
+			//Draw layer content in page coordinates
+			g.scale(1.0 / (1 << level), 1.0 / (1 << level));
+			g.translate(-pageRect.x, -pageRect.y);
+			g.clip(new java.awt.Rectangle(pageRect.x, pageRect.y, pageRect.width, pageRect.height));
+			for (int i=0; i<layers.length; i++) {
+				checkCancelled();
+				painter.paintOverlay(g, layers[i], displayLists[i], pageRect);
+			}
+		} finally {
+			g.dispose();
+		}
+		checkCancelled();
+		data = toImageData(image);
+		return true;
+	}
+
+	/**
+	 * Converts the given ARGB image to image data with alpha values
+	 */
+	private static ImageData toImageData(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		ImageData data = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+		data.alphaData = new byte[width * height];
+		int[] row = new int[width];
+		for (int y=0; y<height; y++) {
+			int offset = y * width;
+			for (int x=0; x<width; x++) {
+				int argb = pixels[offset + x];
+				row[x] = argb & 0xFFFFFF;
+				data.alphaData[offset + x] = (byte)(argb >>> 24);
+			}
+			data.setPixels(0, y, width, row, 0);
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the rasterised tile
+	 * @return Image data with alpha values or <code>null</code> if the task failed
+	 */
+	public ImageData getData() {
+		return data;
+	}
+}
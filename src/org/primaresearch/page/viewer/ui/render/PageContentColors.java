@@ -44,6 +44,8 @@ public class PageContentColors {
 	public Color MapRegionColor;
 	public Color UnknownRegionColor;
 	public Color CustomRegionColor;
+	public Color BorderColor;
+	public Color PrintSpaceColor;
 	
 	public Color ReadingOrderColor1;
 	public Color ReadingOrderColor2;
@@ -71,6 +73,8 @@ public class PageContentColors {
 		 MapRegionColor = new Color(display, 154, 205, 50);
 		 UnknownRegionColor = new Color(display, 100, 100, 100);
 		 CustomRegionColor = new Color(display, 99, 124, 129);
+		 BorderColor = new Color(display, 255, 99, 71);
+		 PrintSpaceColor = new Color(display, 0, 100, 0);
 		 
 		 ReadingOrderColor1 = new Color(display, 220, 20, 60);
 		 ReadingOrderColor2 = new Color(display, 148, 0, 211);
@@ -102,6 +106,8 @@ public class PageContentColors {
 		 MapRegionColor.dispose();
 		 UnknownRegionColor.dispose();
 		 CustomRegionColor.dispose();
+		 BorderColor.dispose();
+		 PrintSpaceColor.dispose();
 		 
 		 ReadingOrderColor1.dispose();
 		 ReadingOrderColor2.dispose();
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.ui.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Cache for rendered page tiles with a fixed memory budget (least recently used tiles are disposed first).
+ * The memory of a tile is counted with 4 bytes per pixel.
+ * 
+ * @author agent
+ *
+ */
+public class TileCache {
+
+	private long maxBytes;
+	private long bytes = 0;
+	private Map<Long, Image> tiles = new LinkedHashMap<Long, Image>(64, 0.75f, true);
+
+	/**
+	 * Constructor
+	 * @param maxBytes Memory budget (older tiles are disposed if exceeded)
+	 */
+	public TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Creates the cache key for the given tile position
+	 * @param level Resolution level (0 = full resolution, 1 = half, ...)
+	 * @param layer Layer index (0 = page image, 1.. = overlay layers)
+	 * @param col Tile column
+	 * @param row Tile row
+	 */
+	public static long createKey(int level, int layer, int col, int row) {
+		return ((long)(level & 0xFF) << 56) | ((long)(layer & 0xFF) << 48) | ((long)(col & 0xFFFFFF) << 24) | (row & 0xFFFFFF);
+	}
+
+	/**
+	 * Returns the resolution level of the given cache key (see {@link #createKey(int, int, int, int)})
+	 */
+	public static int getLevel(long key) {
+		return (int)(key >>> 56) & 0xFF;
+	}
+
+	/**
+	 * Returns the cached tile for the given key
+	 * @return Tile image or <code>null</code> if not in cache
+	 */
+	public Image get(long key) {
+		return tiles.get(key);
+	}
+
+	/**
+	 * Adds a tile to the cache (disposes least recently used tiles if the memory budget is exceeded;
+	 * the added tile is always kept)
+	 */
+	public void put(long key, Image tile) {
+		Image old = tiles.put(key, tile);
+		if (old != null) {
+			bytes -= getBytes(old);
+			if (old != tile)
+				old.dispose();
+		}
+		bytes += getBytes(tile);
+		for (Iterator<Map.Entry<Long, Image>> it = tiles.entrySet().iterator(); it.hasNext() && bytes > maxBytes; ) {
+			Map.Entry<Long, Image> entry = it.next();
+			if (entry.getKey() == key)
+				continue;
+			bytes -= getBytes(entry.getValue());
+			entry.getValue().dispose();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes and disposes the tile for the given key (if cached)
+	 */
+	public void remove(long key) {
+		Image old = tiles.remove(key);
+		if (old != null) {
+			bytes -= getBytes(old);
+			old.dispose();
+		}
+	}
+
+	/**
+	 * Returns the memory budget (in bytes)
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Memory of the given tile (4 bytes per pixel)
+	 */
+	private static long getBytes(Image tile) {
+		Rectangle bounds = tile.getBounds();
+		return (long)bounds.width * bounds.height * 4;
+	}
+
+	/**
+	 * Number of cached tiles
+	 */
+	public int size() {
+		return tiles.size();
+	}
+
+	/**
+	 * Disposes all cached tiles
+	 */
+	public void clear() {
+		for (Iterator<Image> it = tiles.values().iterator(); it.hasNext(); )
+			it.next().dispose();
+		tiles.clear();
+		bytes = 0;
+	}
+}
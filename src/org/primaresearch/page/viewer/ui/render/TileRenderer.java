@@ -0,0 +1,693 @@
+/*
+ * Copyright 2019 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.page.viewer.ui.render;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Display;
+import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.TaskListener;
+import org.primaresearch.page.viewer.image.ImageSource;
+import org.primaresearch.page.viewer.image.TileLoader;
+
+import uky.article.imageviewer.views.SWTImageCanvas;
+
+/**
+ * Renders the page image and content overlay in fixed-size tiles.<br>
+ * Tiles are only rendered for the visible part of the canvas and are kept in a cache with a fixed memory budget.
+ * For zoomed out views, tiles of a lower resolution level are used (each level halves the resolution).<br>
+ * <br>
+ * The overlay is split into layers (e.g. regions, text lines, ...). Each layer is rasterised into
+ * its own transparent tiles, which are composited on top of the page image when painting.
+ * Showing or hiding a layer therefore does not require any re-rendering of the other layers.
+ * If the tiles of all drawn layers of the visible part (plus a margin for scrolling) do not fit into the cache,
+ * the drawn layers are rasterised into one composite tile per position instead
+ * (and if that is still too much, tiles of the next lower resolution level are used).
+ * The layer tiles are rasterised from the display lists of the layers in the background (see {@link LayerTileRasterizer});
+ * until a tile is available, the matching part of a cached tile of a lower resolution level is drawn instead.<br>
+ * <br>
+ * While the user is zooming or panning (interactive mode), fine layers are skipped and missing
+ * overlay tiles are rendered without antialiasing. These draft tiles are shown until they have been
+ * replaced by full quality tiles (requested by the next full quality paint).<br>
+ * <br>
+ * The page image can either be a native image or image data in its original format (e.g. 1 bit bilevel).
+ * Image data is converted tile by tile, so only the visible part of the page exists as native image.
+ * Very large images can also be decoded directly from the file, tile by tile, at the resolution of the tile level.
+ * These tiles are decoded in the background (see {@link TileTaskRunner}); until a tile is available,
+ * the matching part of a cached tile of a lower resolution level (or a blank tile) is drawn instead.
+ * 
+ * @author agent
+ *
+ */
+public class TileRenderer implements SWTImageCanvas.SourcePainter {
+
+	/** Width and height of a tile in pixels */
+	public static final int TILE_SIZE = 256;
+	/** Lowest resolution level (1/32) */
+	private static final int MAX_LEVEL = 5;
+	/** Memory budget of the tile cache (128 MB, 4 bytes per pixel; 512 full tiles) */
+	private static final long CACHE_BYTES = 128L << 20;
+	/** Memory of a full tile */
+	private static final long TILE_BYTES = (long)TILE_SIZE * TILE_SIZE * 4;
+	/** Cache layer index of the page image tiles */
+	private static final int IMAGE_LAYER = 0;
+	/** Cache layer index flag for composite overlay tiles (combined with a bit mask of the layer indices) */
+	private static final int COMPOSITE_LAYER = 0x80;
+
+	private Display display;
+	private Image sourceImage;
+	/** Resolution level of the source image (> 0 for a low resolution preview) */
+	private int sourceImageLevel = 0;
+	/** Full resolution size of a preview source image */
+	private Rectangle previewBounds;
+	private Image[] sourceLevels = new Image[0];
+	private ImageData sourceData;
+	private ImageData[] sourceDataLevels = new ImageData[0];
+	private ImageSource tiledSource;
+	/** Tiles that are being decoded or rasterised (cache key -> task) */
+	private Map<Long, Task> pendingTiles = new HashMap<Long, Task>();
+	/** Decoding a tile of the tiled source failed (no further tiles are requested) */
+	private boolean tiledSourceFailed = false;
+	/** Rasterising an overlay tile failed (no further overlay tiles are requested until the content changes) */
+	private boolean overlayFailed = false;
+	private TileTaskRunner taskRunner;
+	private boolean drawImage = true;
+	private OverlayPainter overlayPainter;
+	private int[] layers = new int[0];
+	private int visibleLayers = 0;
+	private int fineLayers = 0;
+	private Set<Long> draftTiles = new HashSet<Long>();
+	private TileCache cache;
+	private Color background;
+	private int allocations = 0;
+
+	/**
+	 * Constructor
+	 * @param display SWT display object
+	 * @param overlayPainter Painter for the content layers on top of the page image (can be <code>null</code>)
+	 */
+	public TileRenderer(Display display, OverlayPainter overlayPainter) {
+		this.display = display;
+		this.overlayPainter = overlayPainter;
+		cache = new TileCache(CACHE_BYTES);
+		background = new Color(display, 255, 255, 255);
+	}
+
+	/**
+	 * Releases resources
+	 */
+	public void dispose() {
+		cancelPendingTiles();
+		cache.clear();
+		background.dispose();
+	}
+
+	/**
+	 * Sets the page image the tiles are rendered from (the image is not owned by the renderer)
+	 */
+	public void setSourceImage(Image sourceImage) {
+		this.sourceImage = sourceImage;
+		this.sourceImageLevel = 0;
+		this.previewBounds = null;
+		this.sourceLevels = new Image[0];
+		this.sourceData = null;
+		this.sourceDataLevels = new ImageData[0];
+		this.tiledSource = null;
+		this.tiledSourceFailed = false;
+		cancelPendingTiles();
+		invalidate();
+	}
+
+	/**
+	 * Sets an opened image file the image tiles are decoded from (only the tiles that are drawn,
+	 * at the resolution of their level; the source is not owned by the renderer)
+	 */
+	public void setTiledSource(ImageSource tiledSource) {
+		setSourceImage(null);
+		this.tiledSource = tiledSource;
+	}
+
+	/**
+	 * Sets the object that runs the decoding of tiles of a tiled source and the rasterising
+	 * of overlay tiles in the background.
+	 * Without task runner, blank tiles are drawn for tiled sources and no overlay is drawn.
+	 */
+	public void setTaskRunner(TileTaskRunner taskRunner) {
+		this.taskRunner = taskRunner;
+	}
+
+	/**
+	 * Sets a low resolution preview of the page image (scaled up when rendering tiles; not owned by the renderer)
+	 * @param preview Preview image
+	 * @param previewLevel Resolution level of the preview (1 = 1/2, 2 = 1/4, ...)
+	 * @param width Full resolution width of the page image
+	 * @param height Full resolution height of the page image
+	 */
+	public void setPreviewImage(Image preview, int previewLevel, int width, int height) {
+		setSourceImage(preview);
+		this.sourceImageLevel = previewLevel;
+		this.previewBounds = new Rectangle(0, 0, width, height);
+	}
+
+	/**
+	 * Sets the page image the tiles are rendered from as image data in its original format
+	 * (only converted for the tiles that are drawn; the data is not modified)
+	 */
+	public void setSourceData(ImageData sourceData) {
+		setSourceImage(null);
+		this.sourceData = sourceData;
+	}
+
+	/**
+	 * Sets reduced resolution versions of the page image data (see {@link #setSourceData(ImageData)}).
+	 * Existing tiles are kept.
+	 * @param sourceDataLevels Image data with 1/2, 1/4, ... of the resolution of the source image
+	 */
+	public void setSourceDataLevels(ImageData[] sourceDataLevels) {
+		this.sourceDataLevels = sourceDataLevels != null ? sourceDataLevels : new ImageData[0];
+	}
+
+	/**
+	 * Sets reduced resolution versions of the page image (not owned by the renderer).
+	 * Image tiles of lower resolution levels are then rendered from the nearest of these
+	 * instead of the full resolution image. Existing tiles are kept.
+	 * @param sourceLevels Images with 1/2, 1/4, ... of the resolution of the source image
+	 */
+	public void setSourceLevels(Image[] sourceLevels) {
+		this.sourceLevels = sourceLevels != null ? sourceLevels : new Image[0];
+	}
+
+	/**
+	 * Enables/disables drawing of the page image (blank page if disabled)
+	 */
+	public void setDrawImage(boolean drawImage) {
+		this.drawImage = drawImage;
+	}
+
+	/**
+	 * Sets the available overlay layers
+	 * @param layers Layer IDs (bit flags) in drawing order (bottom to top; up to 7 layers can be composited into one tile)
+	 */
+	public void setLayers(int[] layers) {
+		this.layers = layers;
+		invalidate();
+	}
+
+	/**
+	 * Sets which overlay layers are to be composited (cached layers are kept)
+	 * @param visibleLayers Combination of layer IDs (bit flags)
+	 */
+	public void setVisibleLayers(int visibleLayers) {
+		this.visibleLayers = visibleLayers;
+	}
+
+	/**
+	 * Sets which overlay layers are skipped in interactive mode
+	 * @param fineLayers Combination of layer IDs (bit flags)
+	 */
+	public void setFineLayers(int fineLayers) {
+		this.fineLayers = fineLayers;
+	}
+
+	/**
+	 * Discards all rendered tiles (to be called if the page image or content has changed)
+	 */
+	public void invalidate() {
+		cancelPendingTiles();
+		cache.clear();
+		draftTiles.clear();
+		overlayFailed = false;
+	}
+
+	/**
+	 * Returns the resolution level that fits best for the given zoom factor
+	 * (the nearest level with a resolution at or above the zoom factor).
+	 */
+	public static int getLevel(double scale) {
+		int level = 0;
+		while (level < MAX_LEVEL && scale <= 1.0 / (1 << (level + 1)))
+			level++;
+		return level;
+	}
+
+	@Override
+	public int paintSource(GC gc, Rectangle imageRect, AffineTransform transform, boolean interactive) {
+		allocations = 0;
+		Rectangle imageBounds;
+		if (tiledSource != null)
+			imageBounds = new Rectangle(0, 0, tiledSource.getWidth(), tiledSource.getHeight());
+		else if (sourceData != null)
+			imageBounds = new Rectangle(0, 0, sourceData.width, sourceData.height);
+		else if (sourceImage != null && !sourceImage.isDisposed())
+			imageBounds = previewBounds != null ? previewBounds : sourceImage.getBounds();
+		else
+			return allocations;
+		if (imageRect.width <= 0 || imageRect.height <= 0)
+			return allocations;
+
+		int layersToDraw = interactive ? visibleLayers & ~fineLayers : visibleLayers;
+		int[] drawnLayers = new int[layers.length];
+		int drawnLayerCount = 0;
+		for (int i=0; i<layers.length && overlayPainter != null; i++) {
+			if ((layersToDraw & layers[i]) != 0)
+				drawnLayers[drawnLayerCount++] = i;
+		}
+		drawnLayers = Arrays.copyOf(drawnLayers, drawnLayerCount);
+
+		//The tiles of this paint (plus half as many for scrolling) have to fit into the cache
+		//-> composite the overlay layers or, if that is not enough, use a lower resolution
+		int level = getLevel(transform.getScaleX());
+		boolean composite = false;
+		while (true) {
+			int overlayTiles = composite ? 1 : drawnLayerCount;
+			long bytes = getTileCount(imageRect, level) * (1 + overlayTiles) * TILE_BYTES;
+			if (bytes + bytes / 2 <= cache.getMaxBytes())
+				break;
+			if (!composite && drawnLayerCount > 1 && layers.length < 8)
+				composite = true;
+			else if (level < MAX_LEVEL)
+				level++;
+			else
+				break;
+		}
+		int[][] layerGroups;
+		if (composite)
+			layerGroups = new int[][] { drawnLayers };
+		else {
+			layerGroups = new int[drawnLayerCount][];
+			for (int i=0; i<drawnLayerCount; i++)
+				layerGroups[i] = new int[] { drawnLayers[i] };
+		}
+
+		int span = TILE_SIZE << level;
+		cancelPendingTiles(level); //No longer needed
+
+		int firstCol = imageRect.x / span;
+		int firstRow = imageRect.y / span;
+		int lastCol = (imageRect.x + imageRect.width - 1) / span;
+		int lastRow = (imageRect.y + imageRect.height - 1) / span;
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				//Tile area in page coordinates
+				int x = col * span;
+				int y = row * span;
+				int w = Math.min(span, imageBounds.width - x);
+				int h = Math.min(span, imageBounds.height - y);
+				if (w <= 0 || h <= 0)
+					continue;
+				Rectangle pageRect = new Rectangle(x, y, w, h);
+
+				//Target area on screen (calculated from both corners to avoid gaps between tiles)
+				int x1 = (int)Math.floor(x * transform.getScaleX() + transform.getTranslateX());
+				int y1 = (int)Math.floor(y * transform.getScaleY() + transform.getTranslateY());
+				int x2 = (int)Math.floor((x + w) * transform.getScaleX() + transform.getTranslateX());
+				int y2 = (int)Math.floor((y + h) * transform.getScaleY() + transform.getTranslateY());
+				if (x2 <= x1 || y2 <= y1)
+					continue;
+				Rectangle screenRect = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+
+				//Page image
+				if (drawImage && tiledSource != null)
+					drawDecodedTile(gc, level, col, row, pageRect, screenRect);
+				else if (drawImage)
+					drawTile(gc, getImageTile(level, col, row, pageRect), screenRect);
+				else {
+					gc.setBackground(background);
+					gc.fillRectangle(screenRect);
+				}
+
+				//Overlay layers
+				for (int i=0; i<layerGroups.length; i++)
+					drawLayerTile(gc, level, layerGroups[i], col, row, pageRect, screenRect, interactive);
+			}
+		}
+		return allocations;
+	}
+
+	/**
+	 * Returns the number of tiles of the given resolution level covering the specified area
+	 * @param imageRect Area in page coordinates
+	 */
+	private static long getTileCount(Rectangle imageRect, int level) {
+		int span = TILE_SIZE << level;
+		long cols = (imageRect.x + imageRect.width - 1) / span - imageRect.x / span + 1;
+		long rows = (imageRect.y + imageRect.height - 1) / span - imageRect.y / span + 1;
+		return cols * rows;
+	}
+
+	/**
+	 * Draws the given tile, stretched to the screen rectangle
+	 */
+	private void drawTile(GC gc, Image tile, Rectangle screenRect) {
+		Rectangle tileBounds = tile.getBounds();
+		gc.drawImage(tile, 0, 0, tileBounds.width, tileBounds.height, screenRect.x, screenRect.y, screenRect.width, screenRect.height);
+	}
+
+	/**
+	 * Draws the specified tile of the tiled source, if available. Otherwise decoding of the tile is
+	 * started in the background and the corresponding part of a cached tile of a lower resolution level
+	 * (or a blank area) is drawn instead.
+	 */
+	private void drawDecodedTile(GC gc, int level, int col, int row, Rectangle pageRect, Rectangle screenRect) {
+		long key = TileCache.createKey(level, IMAGE_LAYER, col, row);
+		Image tile = cache.get(key);
+		if (tile != null) {
+			drawTile(gc, tile, screenRect);
+			return;
+		}
+		requestImageTile(key, level, pageRect);
+		if (!drawCoarseTile(gc, level, IMAGE_LAYER, col, row, pageRect, screenRect)) {
+			gc.setBackground(background);
+			gc.fillRectangle(screenRect);
+		}
+	}
+
+	/**
+	 * Draws the specified overlay tile, if available. Otherwise rasterising the tile is started in the background
+	 * and the corresponding part of a cached tile of a lower resolution level (if any) is drawn instead.
+	 * A draft tile is drawn until it has been replaced by a full quality tile.
+	 * @param layerIndices Indices of the layers in the layer array (see {@link #setLayers(int[])}) that are drawn
+	 * 			into the tile (more than one for composite tiles)
+	 * @param draft Rasterise a missing tile without antialiasing (interactive mode)
+	 */
+	private void drawLayerTile(GC gc, int level, int[] layerIndices, int col, int row, Rectangle pageRect, Rectangle screenRect, boolean draft) {
+		int layer = getCacheLayer(layerIndices);
+		long key = TileCache.createKey(level, layer, col, row);
+		Image tile = cache.get(key);
+		if (tile == null || (!draft && draftTiles.contains(key)))
+			requestLayerTile(key, level, layerIndices, pageRect, draft);
+		if (tile != null)
+			drawTile(gc, tile, screenRect);
+		else
+			drawCoarseTile(gc, level, layer, col, row, pageRect, screenRect);
+	}
+
+	/**
+	 * Returns the cache layer index for an overlay tile with the given layers
+	 * @param layerIndices Indices in the layer array
+	 */
+	private static int getCacheLayer(int[] layerIndices) {
+		if (layerIndices.length == 1)
+			return layerIndices[0] + 1;
+		int mask = 0;
+		for (int i=0; i<layerIndices.length; i++)
+			mask |= 1 << layerIndices[i];
+		return COMPOSITE_LAYER | mask;
+	}
+
+	/**
+	 * Draws the part of a cached tile of a lower resolution level that covers the specified tile
+	 * @param layer Layer index (0 for page image, 1.. for overlay layers)
+	 * @return <code>false</code> if no such tile is cached
+	 */
+	private boolean drawCoarseTile(GC gc, int level, int layer, int col, int row, Rectangle pageRect, Rectangle screenRect) {
+		for (int coarseLevel = level + 1; coarseLevel <= MAX_LEVEL; coarseLevel++) {
+			int shift = coarseLevel - level;
+			Image coarse = cache.get(TileCache.createKey(coarseLevel, layer, col >> shift, row >> shift));
+			if (coarse == null)
+				continue;
+			//Part of the coarse tile covering this tile
+			Rectangle coarseBounds = coarse.getBounds();
+			int coarseSpan = TILE_SIZE << coarseLevel;
+			int sx = (pageRect.x - (col >> shift) * coarseSpan) >> coarseLevel;
+			int sy = (pageRect.y - (row >> shift) * coarseSpan) >> coarseLevel;
+			int sw = Math.min(Math.max(1, pageRect.width >> coarseLevel), coarseBounds.width - sx);
+			int sh = Math.min(Math.max(1, pageRect.height >> coarseLevel), coarseBounds.height - sy);
+			if (sw > 0 && sh > 0) {
+				gc.drawImage(coarse, sx, sy, sw, sh, screenRect.x, screenRect.y, screenRect.width, screenRect.height);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Starts decoding the specified tile of the tiled source in the background (if not already started)
+	 */
+	private void requestImageTile(long key, int level, Rectangle pageRect) {
+		if (taskRunner == null || tiledSourceFailed || pendingTiles.containsKey(key))
+			return;
+		requestTile(key, new TileLoader(tiledSource, pageRect, 1 << level), false);
+	}
+
+	/**
+	 * Starts rasterising the specified overlay tile in the background (if not already started)
+	 * @param layerIndices Indices of the layers in the layer array
+	 * @param draft Rasterise without antialiasing
+	 */
+	private void requestLayerTile(long key, int level, int[] layerIndices, Rectangle pageRect, boolean draft) {
+		if (taskRunner == null || overlayFailed || pendingTiles.containsKey(key))
+			return;
+		int[] layerIds = new int[layerIndices.length];
+		DisplayList[] displayLists = new DisplayList[layerIndices.length];
+		int count = 0;
+		for (int i=0; i<layerIndices.length; i++) {
+			DisplayList displayList = overlayPainter.getDisplayList(layers[layerIndices[i]]);
+			if (displayList == null) //No content (yet)
+				continue;
+			layerIds[count] = layers[layerIndices[i]];
+			displayLists[count] = displayList;
+			count++;
+		}
+		if (count == 0)
+			return;
+		requestTile(key, new LayerTileRasterizer(overlayPainter, Arrays.copyOf(layerIds, count), Arrays.copyOf(displayLists, count), 
+												pageRect, level, getTileSize(pageRect.width, level), getTileSize(pageRect.height, level), draft), 
+					draft);
+	}
+
+	/**
+	 * Queues the given tile task
+	 * @param key Cache key of the tile
+	 * @param task Task creating the image data of the tile
+	 * @param draft Draft quality tile (to be replaced by the next full quality paint)
+	 */
+	private void requestTile(final long key, final Task task, final boolean draft) {
+		task.addListener(new TaskListener() {
+			@Override
+			public void taskFinished(Task finishedTask) {
+				if (display.isDisposed())
+					return;
+				display.asyncExec(new Runnable() {
+					public void run() {
+						onTileFinished(key, task, draft);
+					}
+				});
+			}
+		});
+		pendingTiles.put(key, task);
+		taskRunner.runTaskAsync(task);
+	}
+
+	/**
+	 * Adds a decoded or rasterised tile to the cache and requests a repaint (UI thread)
+	 */
+	private void onTileFinished(long key, Task task, boolean draft) {
+		if (pendingTiles.get(key) != task) //Discarded in the meantime (source or content replaced)
+			return;
+		pendingTiles.remove(key);
+		if (task.isSuccessfull()) {
+			ImageData data = task instanceof TileLoader ? ((TileLoader)task).getData() : ((LayerTileRasterizer)task).getData();
+			cache.put(key, new Image(display, data));
+			if (draft)
+				draftTiles.add(key);
+			else
+				draftTiles.remove(key);
+			if (taskRunner != null)
+				taskRunner.tileAvailable();
+		}
+		else if (task.getException() != null) {
+			//Report once; no further tiles of this kind from now on (blank image tiles or no overlay)
+			if (task instanceof TileLoader)
+				tiledSourceFailed = true;
+			else
+				overlayFailed = true;
+			cancelPendingTiles();
+			if (taskRunner != null)
+				taskRunner.tileFailed(task);
+		}
+	}
+
+	/**
+	 * Cancels all tiles that have been requested but not been decoded or rasterised yet
+	 */
+	private void cancelPendingTiles() {
+		for (Iterator<Task> it = pendingTiles.values().iterator(); it.hasNext(); )
+			it.next().cancel();
+		pendingTiles.clear();
+	}
+
+	/**
+	 * Cancels the requested tiles of all resolution levels except the given one
+	 */
+	private void cancelPendingTiles(int level) {
+		for (Iterator<Map.Entry<Long, Task>> it = pendingTiles.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Long, Task> entry = it.next();
+			if (TileCache.getLevel(entry.getKey()) != level) {
+				entry.getValue().cancel();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the specified page image tile from the cache or renders it, if not available.
+	 * @param pageRect Tile area in page coordinates
+	 */
+	private Image getImageTile(int level, int col, int row, Rectangle pageRect) {
+		long key = TileCache.createKey(level, IMAGE_LAYER, col, row);
+		Image tile = cache.get(key);
+		if (tile == null) {
+			if (sourceData != null)
+				tile = convertImageTile(level, pageRect);
+			else
+				tile = renderImageTile(level, pageRect);
+			cache.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Renders a tile of the page image
+	 * @param level Resolution level
+	 * @param pageRect Tile area in page coordinates
+	 */
+	private Image renderImageTile(int level, Rectangle pageRect) {
+		int width = getTileSize(pageRect.width, level);
+		int height = getTileSize(pageRect.height, level);
+
+		//Use the nearest reduced resolution version of the page image at or above the tile resolution
+		int sourceLevel = Math.min(level, sourceLevels.length);
+		while (sourceLevel > 0 && sourceLevels[sourceLevel - 1].isDisposed())
+			sourceLevel--;
+		Image source = sourceLevel > 0 ? sourceLevels[sourceLevel - 1] : sourceImage;
+		if (sourceLevel == 0)
+			sourceLevel = sourceImageLevel; //Preview (may have a lower resolution than the tile)
+		Rectangle sourceBounds = source.getBounds();
+		int x1 = pageRect.x >> sourceLevel;
+		int y1 = pageRect.y >> sourceLevel;
+		int x2 = Math.min(sourceBounds.width, (pageRect.x + pageRect.width + (1 << sourceLevel) - 1) >> sourceLevel);
+		int y2 = Math.min(sourceBounds.height, (pageRect.y + pageRect.height + (1 << sourceLevel) - 1) >> sourceLevel);
+
+		Image tile = new Image(display, width, height);
+		GC gc = new GC(tile);
+		allocations += 2;
+		if (x2 > x1 && y2 > y1)
+			gc.drawImage(source, x1, y1, x2 - x1, y2 - y1, 0, 0, width, height);
+		gc.dispose();
+		return tile;
+	}
+
+	/**
+	 * Creates a tile of the page image from the source image data (nearest neighbour sampling
+	 * of the nearest reduced resolution version). The tile keeps the format of the source data.
+	 * @param level Resolution level
+	 * @param pageRect Tile area in page coordinates
+	 */
+	private Image convertImageTile(int level, Rectangle pageRect) {
+		int width = getTileSize(pageRect.width, level);
+		int height = getTileSize(pageRect.height, level);
+
+		int sourceLevel = Math.min(level, sourceDataLevels.length);
+		ImageData source = sourceLevel > 0 ? sourceDataLevels[sourceLevel - 1] : sourceData;
+
+		//Source columns and rows for the tile pixels (centre of the covered page area)
+		int half = (1 << level) >> 1;
+		int[] columns = new int[width];
+		for (int x=0; x<width; x++)
+			columns[x] = Math.min(source.width - 1, (pageRect.x + (x << level) + half) >> sourceLevel);
+		int x1 = columns[0];
+		int[] sourceRow = new int[columns[width - 1] - x1 + 1];
+		int[] tileRow = new int[width];
+
+		ImageData data = new ImageData(width, height, source.depth, source.palette);
+		for (int y=0; y<height; y++) {
+			int sourceY = Math.min(source.height - 1, (pageRect.y + (y << level) + half) >> sourceLevel);
+			source.getPixels(x1, sourceY, sourceRow.length, sourceRow, 0);
+			for (int x=0; x<width; x++)
+				tileRow[x] = sourceRow[columns[x] - x1];
+			data.setPixels(0, y, width, tileRow, 0);
+		}
+
+		allocations++;
+		return new Image(display, data);
+	}
+
+	/**
+	 * Calculates the tile width or height for the given resolution level
+	 */
+	private static int getTileSize(int pageSize, int level) {
+		return Math.max(1, (pageSize + (1 << level) - 1) >> level);
+	}
+
+	/**
+	 * Interface for drawing content layers on top of the page image
+	 * 
+	 * @author agent
+	 *
+	 */
+	public static interface OverlayPainter {
+		/**
+		 * Returns the compiled content of the given overlay layer (called on the UI thread)
+		 * @param layer Layer ID
+		 * @return Display list or <code>null</code> if there is nothing to draw
+		 */
+		public DisplayList getDisplayList(int layer);
+		
+		/**
+		 * Draws the given overlay layer for the specified area (called in a worker thread)
+		 * @param g Graphics context (using page coordinates)
+		 * @param layer Layer ID
+		 * @param displayList Display list of the layer (see {@link #getDisplayList(int)})
+		 * @param pageRect Area to draw in page coordinates
+		 */
+		public void paintOverlay(Graphics2D g, int layer, DisplayList displayList, Rectangle pageRect);
+	}
+
+	/**
+	 * Interface for running the decoding of image tiles and the rasterising of overlay tiles in the background
+	 */
+	public static interface TileTaskRunner {
+		/**
+		 * Queues the given task (the renderer adds its own listener to the task)
+		 */
+		public void runTaskAsync(Task task);
+
+		/**
+		 * Called on the UI thread when decoding an image tile or rasterising an overlay tile has failed.
+		 * Called only once per page image (or page content), as no further tiles of the kind are requested.
+		 */
+		public void tileFailed(Task task);
+
+		/**
+		 * Called on the UI thread when a decoded or rasterised tile has been added, so that the canvas can be repainted
+		 */
+		public void tileAvailable();
+	}
+}
@@ -15,8 +15,13 @@
  */
 package org.primaresearch.page.viewer.ui.views;
 
+import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseEvent;
@@ -27,6 +32,7 @@ import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Composite;
@@ -34,22 +40,27 @@ import org.primaresearch.dla.page.layout.PageLayout;
 import org.primaresearch.dla.page.layout.logical.Group;
 import org.primaresearch.dla.page.layout.logical.GroupMember;
 import org.primaresearch.dla.page.layout.logical.ReadingOrder;
-import org.primaresearch.dla.page.layout.logical.RegionRef;
-import org.primaresearch.dla.page.layout.physical.ContentIterator;
 import org.primaresearch.dla.page.layout.physical.ContentObject;
-import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
-import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
 import org.primaresearch.maths.geometry.Point;
-import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.page.viewer.Document;
 import org.primaresearch.page.viewer.Document.DocumentListener;
 import org.primaresearch.page.viewer.PageViewer;
+import org.primaresearch.page.viewer.dla.PageLayoutIndex;
+import org.primaresearch.page.viewer.dla.ReadingOrderGeometry;
+import org.primaresearch.page.viewer.extra.SampleWindow;
+import org.primaresearch.page.viewer.extra.Task;
+import org.primaresearch.page.viewer.extra.Timings;
+import org.primaresearch.page.viewer.extra.jfr.LayerRenderEvent;
+import org.primaresearch.page.viewer.image.Image;
 import org.primaresearch.page.viewer.ui.PageElementTooltip;
+import org.primaresearch.page.viewer.ui.render.DisplayList;
 import org.primaresearch.page.viewer.ui.render.DrawingHelper;
 import org.primaresearch.page.viewer.ui.render.DrawingHelper.ArrowShape;
 import org.primaresearch.page.viewer.ui.render.PageContentColors;
+import org.primaresearch.page.viewer.ui.render.TileRenderer;
 
 import uky.article.imageviewer.views.SWTImageCanvas;
 
@@ -66,6 +77,25 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	private PageLayout docLayout;
 	private PageElementTooltip tooltip;
 	private PageContentColors colors;
+	private TileRenderer tileRenderer;
+	/** Compiled overlay layers (display mode bit -> display list; UI thread only) */
+	private Map<Integer, DisplayList> displayLists = new HashMap<Integer, DisplayList>();
+	private boolean paintListenerAdded = false;
+	/** Show performance figures on top of the page? */
+	private volatile boolean hudVisible = false;
+	/** Start of the last refresh that has not been painted yet (0 if none; see {@link Timings#REFRESH}) */
+	private long refreshStart = 0;
+	/** Drawing commands executed since the last paint, per display list (a command drawn in several tiles is counted once; 
+	 *  written by the threads rasterising the overlay tiles) */
+	private Map<DisplayList, BitSet> drawnCommands = new HashMap<DisplayList, BitSet>();
+	
+	/** Overlay layers that are skipped while zooming or panning */
+	private static final int FINE_LAYERS = DISPLAYMODE_WORD | DISPLAYMODE_GLYPH;
+	
+	/** Overlay layers in drawing order */
+	private static final int[] OVERLAY_LAYERS = new int[] {	DISPLAYMODE_BORDER, DISPLAYMODE_PRINTSPACE, DISPLAYMODE_REGION, 
+															DISPLAYMODE_READING_ORDER, DISPLAYMODE_TEXTLINE, DISPLAYMODE_WORD, 
+															DISPLAYMODE_GLYPH };
 	
 	/**
 	 * Constructor
@@ -82,6 +112,7 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	 * Releases resources
 	 */
 	public void dispose() {
+		tileRenderer.dispose();
 		colors.dispose();
 		tooltip.dispose();
 	}
@@ -110,6 +141,38 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	    tooltip.activateHoverHelp(imageCanvas);
 	    
 	    colors = new PageContentColors(viewPane.getDisplay());
+	    
+	    tileRenderer = new TileRenderer(viewPane.getDisplay(), new TileRenderer.OverlayPainter() {
+			@Override
+			public DisplayList getDisplayList(int layer) {
+				return DocumentImageView.this.getDisplayList(layer);
+			}
+
+			@Override
+			public void paintOverlay(Graphics2D g, int layer, DisplayList displayList, Rectangle pageRect) {
+				drawLayer(g, layer, displayList, pageRect);
+			}
+		});
+	    tileRenderer.setLayers(OVERLAY_LAYERS);
+	    tileRenderer.setFineLayers(FINE_LAYERS);
+	    //Overlay tiles and tiles of very large images are created in the background
+	    tileRenderer.setTaskRunner(new TileRenderer.TileTaskRunner() {
+			@Override
+			public void runTaskAsync(Task task) {
+				pageViewer.runTaskAsync(task, null); //(not handled by the main event listener)
+			}
+
+			@Override
+			public void tileFailed(Task task) {
+				pageViewer.getMainEventListener().showError("Error", "An error occured ("+task.getClass().getSimpleName()+"):\n" + task.getException());
+			}
+
+			@Override
+			public void tileAvailable() {
+				imageCanvas.scheduleRedraw();
+			}
+		});
+	    imageCanvas.setSourcePainter(tileRenderer);
 	}
 
 	@Override
@@ -119,57 +182,26 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	
 	@Override
 	public void refresh() {
-		org.eclipse.swt.graphics.Image source = pageViewer.getDocument().getImage().getImageObject();
-		org.eclipse.swt.graphics.Image copy;
-		
-		if ((displayMode & DISPLAYMODE_IMAGE) != 0) {
-			
-			if (source.getImageData().depth > 8) { //Colour image
-				copy = new org.eclipse.swt.graphics.Image(	viewPane.getDisplay(), 
-															source, 
-															SWT.IMAGE_COPY);
-			}
-			//B/W or grey scale image (we cannot copy, otherwise the internal image is not in colour and we can't draw the overlay in colour)
-			else {
-				int height = source.getImageData().height;
-				int width = source.getImageData().width;
-				
-				copy = new org.eclipse.swt.graphics.Image(viewPane.getDisplay(), 
-	        											width, height);
-				
-				GC gc = new GC(copy);
-				gc.drawImage(source,  0,  0);
-				gc.dispose();
-				
-				/*
-				copy = new org.eclipse.swt.graphics.Image(viewPane.getDisplay(), 
-	        											width, height);
-				//Copy pixels
-				int x,y;
-				int buffer[] = new int[width];
-				ImageData srcData = source.getImageData();
-				ImageData targetData = copy.getImageData();
-				int black = 0x00000000;
-				int white = 0x00FFFFFF;
-				for (y=0; y<height; y++) {
-					//srcData.getPixels(0, y, width, buffer, 0);
-					Arrays.fill(buffer, black);
-					targetData.setPixels(0, y, width, buffer, 0);
-				
-					//CC: Too slow:
-					//for (x=0; x<width; x++)
-					//	copy.getImageData().setPixel(x, y, source.getImageData().getPixel(x, y) == 0 
-					//												? SWT.COLOR_BLACK 
-					//												: SWT.COLOR_WHITE);
-				}*/
-			}
-		} else { //Empty image
-			copy = new org.eclipse.swt.graphics.Image(viewPane.getDisplay(), pageViewer.getDocument().getImage().getWidth(), pageViewer.getDocument().getImage().getHeight());
-		}
-		GC gc = new GC(copy);
-		drawEverything(gc);
-		imageCanvas.setSourceImage(copy, false);
-		gc.dispose();
+		//Composite the cached layers (missing tiles are rendered on demand for the visible part of the page)
+		tileRenderer.setDrawImage((displayMode & DISPLAYMODE_IMAGE) != 0);
+		tileRenderer.setVisibleLayers(displayMode);
+		imageCanvas.scheduleRedraw();
+		refreshStart = Timings.start(); //Measured up to the next paint (see paintControl)
+	}
+	
+	/**
+	 * Shows or hides the performance figures (frame time, load times, drawn objects) on top of the page
+	 */
+	public void setHudVisible(boolean visible) {
+		hudVisible = visible;
+		imageCanvas.scheduleRedraw();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the performance figures are shown
+	 */
+	public boolean isHudVisible() {
+		return hudVisible;
 	}
 	
 	/**
@@ -201,121 +233,299 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	}
 
 	/**
-	 * Called when the document page image has changed
+	 * Called when the document page image has changed.
+	 * The view draws the image of the document directly (no copy); the image is owned by the document.
 	 */
 	public void imageChanged() {
+		showImageAsync(true);
+	}
+
+	/**
+	 * Called when the page image has been replaced by a higher resolution version (zoom and position are kept)
+	 */
+	public void imageRefined() {
+		showImageAsync(false);
+	}
+	
+	/**
+	 * Shows the current page image of the document (on the UI thread)
+	 * @param resetZoom Show the image in original size?
+	 */
+	private void showImageAsync(final boolean resetZoom) {
 		try {
-			if (pageViewer.getDocument().getImage() != null)
-			{
-				final DocumentImageView view = this; 
-				viewPane.getDisplay().asyncExec(new Runnable() {
-		            public void run() {
-		        		try {
-		        			//org.eclipse.swt.graphics.Image source = pageViewer.getDocument().getImage().getImageObject();
-		        			org.eclipse.swt.graphics.Image copy = null;
-		        			
-		        			//System.out.println(" Depth = "+source.getImageData().depth);
-		        					
-		        			//if (source.getImageData().depth > 1) { //Colour or grey scale image
-		        				//Copy directly 
-		        				copy = new org.eclipse.swt.graphics.Image(viewPane.getDisplay(), 
-									 										pageViewer.getDocument().getImage().getImageObject(), 
-									 										SWT.IMAGE_COPY);
-		        			//} 
-		        			//B/W image
-		        			//else if (source.getImageData().depth == 1){
-		        			//	copy = new org.eclipse.swt.graphics.Image(viewPane.getDisplay(), 
-		        			//											source.getBounds().width, source.getBounds().height);
-		        			//}
-		        			
-		        			imageCanvas.setSourceImage(copy);
-		        			imageCanvas.addPaintListener(view);
-		        		} catch (Exception exc) {
-		        			exc.printStackTrace();
-		        		}
-		            }
-		         });
-			}
+			final DocumentImageView view = this; 
+			viewPane.getDisplay().asyncExec(new Runnable() {
+	            public void run() {
+	        		try {
+	        			Image image = document != null ? document.getImage() : null;
+	        			if (image != null && image.isDisposed())
+	        				image = null;
+	        			
+	        			//Very large image -> decoded tile by tile
+	        			if (image != null && image.isTiled()) {
+	        				imageCanvas.setSourceSize(image.getWidth(), image.getHeight(), resetZoom);
+	        				tileRenderer.setTiledSource(image.getTiledSource());
+	        			}
+	        			//Bilevel/greyscale -> converted tile by tile from the original data
+	        			else if (image != null && image.isIndexed()) {
+	        				imageCanvas.setSourceSize(image.getWidth(), image.getHeight(), resetZoom);
+	        				tileRenderer.setSourceData(image.getIndexedData());
+	        			}
+	        			//Low resolution preview -> scaled up until the full resolution is available
+	        			else if (image != null && image.getPreviewLevel() > 0) {
+	        				imageCanvas.setSourceSize(image.getWidth(), image.getHeight(), resetZoom);
+	        				tileRenderer.setPreviewImage(image.getImageObject(), image.getPreviewLevel(), image.getWidth(), image.getHeight());
+	        			}
+	        			else {
+	        				org.eclipse.swt.graphics.Image source = image != null ? image.getImageObject() : null;
+	        				imageCanvas.setSourceImage(source, resetZoom, false);
+	        				tileRenderer.setSourceImage(source);
+	        			}
+	        			if (image != null && !paintListenerAdded) {
+	        				imageCanvas.addPaintListener(view);
+	        				paintListenerAdded = true;
+	        			}
+	        		} catch (Exception exc) {
+	        			pageViewer.getMainEventListener().showError("Error", "The page image could not be shown:\n" + exc);
+	        		}
+	            }
+	         });
 		} catch (Exception exc) {
-			exc.printStackTrace();
+			pageViewer.getMainEventListener().showError("Error", "The page image could not be shown:\n" + exc);
+		}
+	}
+
+	/**
+	 * Called when reduced resolution versions of the page image are available
+	 */
+	public void imageLevelsChanged() {
+		if (document != null && document.getImage() != null) {
+			if (document.getImage().isIndexed())
+				tileRenderer.setSourceDataLevels(document.getImage().getLevelData());
+			else
+				tileRenderer.setSourceLevels(document.getImage().getLevels());
 		}
 	}
 
+	/**
+	 * Called when the page content has changed (discards all rendered layers)
+	 */
+	public void contentChanged() {
+		displayLists.clear();
+		tileRenderer.invalidate();
+		imageCanvas.scheduleRedraw();
+	}
+
 	@Override
 	public void setDocument(Document doc) {
 		super.setDocument(doc);
+		docLayout = null;
+		displayLists.clear();
 		doc.addListener((DocumentListener)this);
 		imageChanged();
 	}
 
 	public void paintControl(PaintEvent e) {
+		if (refreshStart != 0) {
+			Timings.stop(Timings.REFRESH, refreshStart);
+			refreshStart = 0;
+		}
+		if (hudVisible)
+			drawHud(e.gc);
         e.gc.dispose();
 	}
 	
 	/**
-	 * Renders the page content overlays.
-	 * @param gc Drawing canvas
+	 * Draws the performance figures in the top left corner of the canvas
 	 */
-	private void drawEverything(GC gc) {
-		if (document != null && document.getPageLayout() != null) {
-			docLayout = document.getPageLayout();
-			
-			int oldAntialias = gc.getAntialias();
-			gc.setAntialias(SWT.ON);
-			
-			if ((displayMode & DISPLAYMODE_BORDER) != 0)
-				drawBorder(gc);
-			if ((displayMode & DISPLAYMODE_PRINTSPACE) != 0)
-				drawPrintSpace(gc);
-			if ((displayMode & DISPLAYMODE_REGION) != 0)
-				drawRegions(gc);
-			if ((displayMode & DISPLAYMODE_READING_ORDER) != 0)
-				drawReadingOrder(gc);
-			if ((displayMode & DISPLAYMODE_TEXTLINE) != 0)
-				drawTextlines(gc);
-			if ((displayMode & DISPLAYMODE_WORD) != 0)
-				drawWords(gc);
-			if ((displayMode & DISPLAYMODE_GLYPH) != 0)
-				drawGlyphs(gc);
-			
-			gc.setAntialias(oldAntialias);
-		}		
+	private void drawHud(GC gc) {
+		SampleWindow paint = Timings.get(Timings.PAINT);
+		int commands = 0;
+		int drawn = 0;
+		synchronized (drawnCommands) {
+			for (Iterator<Map.Entry<DisplayList, BitSet>> it = drawnCommands.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<DisplayList, BitSet> entry = it.next();
+				commands += entry.getKey().size();
+				drawn += entry.getValue().cardinality();
+			}
+			drawnCommands.clear();
+		}
+		String[] lines = new String[] {
+			"Frame: " + Timings.toMillis(paint.getLast()) 
+				+ " (median " + Timings.toMillis(paint.getPercentile(50)) 
+				+ ", 95% " + Timings.toMillis(paint.getPercentile(95)) + ")",
+			"Frames: " + imageCanvas.getPaintedFrameCount() + " painted / " + imageCanvas.getRequestedFrameCount() + " requested"
+				+ ", refresh " + Timings.toMillis(Timings.get(Timings.REFRESH).getLast()),
+			"Load: XML " + Timings.toMillis(Timings.get(Timings.XML_LOAD).getLast())
+				+ ", image " + Timings.toMillis(Timings.get(Timings.IMAGE_LOAD).getLast())
+				+ ", post-process " + Timings.toMillis(Timings.get(Timings.POST_PROCESS).getLast())
+				+ ", overlays " + Timings.toMillis(Timings.get(Timings.COMPILE).getLast()),
+			"Commands: " + drawn + " drawn / " + (commands - drawn) + " culled"
+		};
+		
+		int lineHeight = gc.getFontMetrics().getHeight();
+		int width = 0;
+		for (int i=0; i<lines.length; i++)
+			width = Math.max(width, gc.textExtent(lines[i]).x);
+		
+		gc.setAlpha(180);
+		gc.setBackground(viewPane.getDisplay().getSystemColor(SWT.COLOR_BLACK));
+		gc.fillRectangle(5, 5, width + 10, lines.length * lineHeight + 10);
+		gc.setAlpha(255);
+		gc.setForeground(viewPane.getDisplay().getSystemColor(SWT.COLOR_WHITE));
+		for (int i=0; i<lines.length; i++)
+			gc.drawText(lines[i], 10, 10 + i * lineHeight, true);
 	}
 	
 	/**
-	 * Draws all regions
+	 * Renders a page content overlay layer by replaying its display list (called in the worker threads rasterising the overlay tiles).
+	 * @param g Drawing canvas
+	 * @param layer Display mode bit of the layer (see DISPLAYMODE_... constants)
+	 * @param displayList Compiled layer (see {@link #getDisplayList(int)})
+	 * @param area Area to draw (page coordinates)
 	 */
-	private void drawRegions(GC gc) {
-		gc.setLineWidth(1);
-		for (ContentIterator it = docLayout.iterator(null); it.hasNext(); ) {
-			ContentObject region = it.next();
-			if (region.getCoords() != null) {
-				Polygon coords = region.getCoords();
-				DrawingHelper.drawPolygon(gc, getContentObjectColor(region), coords);
+	private void drawLayer(Graphics2D g, int layer, DisplayList displayList, Rectangle area) {
+		long start = Timings.start();
+		LayerRenderEvent event = new LayerRenderEvent();
+		event.begin();
+		int[] drawn = displayList.replay(g, area); //(antialiasing is set by the tile renderer)
+		if (hudVisible)
+			countDrawn(displayList, drawn);
+		event.objectsDrawn = drawn.length;
+		event.objectsCulled = displayList.size() - drawn.length;
+		Timings.stop(Timings.LAYER_PREFIX + getLayerName(layer), start);
+		if (event.shouldCommit()) {
+			event.layer = getLayerName(layer);
+			event.pageArea = (long)area.width * area.height;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Records the executed commands of a display list for the performance figures
+	 * @param commands Command indices (see {@link DisplayList#replay(Graphics2D, Rectangle)})
+	 */
+	private void countDrawn(DisplayList displayList, int[] commands) {
+		synchronized (drawnCommands) {
+			BitSet drawn = drawnCommands.get(displayList);
+			if (drawn == null) {
+				drawn = new BitSet(displayList.size());
+				drawnCommands.put(displayList, drawn);
 			}
+			for (int i=0; i<commands.length; i++)
+				drawn.set(commands[i]);
 		}
 	}
 	
 	/**
-	 * Draws all text lines
+	 * Returns the name of the given overlay layer (for timings)
 	 */
-	private void drawTextlines(GC gc) {
-		gc.setLineWidth(1);
-		for (ContentIterator it = docLayout.iterator(LowLevelTextType.TextLine); it.hasNext(); ) {
-			ContentObject region = it.next();
-			
-			//https://github.com/bertsky
-			if (region instanceof TextLine &&
-					((TextLine)region).getBaseline() != null) {
-				Polygon baseline = ((TextLine)region).getBaseline();
-				DrawingHelper.drawMultiline(gc, getContentObjectColor(region), baseline);
+	private static String getLayerName(int layer) {
+		switch (layer) {
+			case DISPLAYMODE_BORDER: 		return "Border";
+			case DISPLAYMODE_PRINTSPACE: 	return "Print space";
+			case DISPLAYMODE_REGION: 		return "Regions";
+			case DISPLAYMODE_READING_ORDER: return "Reading order";
+			case DISPLAYMODE_TEXTLINE: 		return "Text lines";
+			case DISPLAYMODE_WORD: 			return "Words";
+			case DISPLAYMODE_GLYPH: 		return "Glyphs";
+		}
+		return "" + layer;
+	}
+	
+	/**
+	 * Returns the display list for the given overlay layer (compiles the list if necessary; UI thread only).
+	 * The lists are kept until the page content changes.
+	 * @param layer Display mode bit of the layer (see DISPLAYMODE_... constants)
+	 * @return Display list or <code>null</code> if there is no page layout
+	 */
+	private DisplayList getDisplayList(int layer) {
+		DisplayList displayList = displayLists.get(layer);
+		if (displayList == null) {
+			if (document == null || document.getPageLayout() == null || document.getLayoutIndex() == null)
+				return null;
+			docLayout = document.getPageLayout();
+			displayList = compileLayer(docLayout, document.getLayoutIndex(), layer);
+			displayLists.put(layer, displayList);
+		}
+		return displayList;
+	}
+	
+	/**
+	 * Compiles the display list for the given overlay layer.
+	 * Only reads the layout, the index and the (shared) colours, so it can be called from any thread.
+	 */
+	private DisplayList compileLayer(PageLayout layout, PageLayoutIndex index, int layer) {
+		long start = Timings.start();
+		DisplayList.Builder builder = new DisplayList.Builder(index.getGeometry());
+		switch (layer) {
+			case DISPLAYMODE_BORDER: 		compileBorder(builder, index); break;
+			case DISPLAYMODE_PRINTSPACE: 	compilePrintSpace(builder, index); break;
+			case DISPLAYMODE_REGION: 		compileRegions(builder, index); break;
+			case DISPLAYMODE_READING_ORDER: compileReadingOrder(builder, layout, index.getReadingOrderGeometry()); break;
+			case DISPLAYMODE_TEXTLINE: 		compileTextlines(builder, index); break;
+			case DISPLAYMODE_WORD: 			compileWords(builder, index); break;
+			case DISPLAYMODE_GLYPH: 		compileGlyphs(builder, index); break;
+		}
+		DisplayList displayList = builder.build();
+		Timings.stop(Timings.COMPILE, start);
+		return displayList;
+	}
+	
+	@Override
+	public Runnable prepare(final Document doc, final PageLayout layout, final PageLayoutIndex index, int displayMode) {
+		//Compile the visible overlay layers
+		final Map<Integer, DisplayList> lists = new HashMap<Integer, DisplayList>();
+		for (int i=0; i<OVERLAY_LAYERS.length; i++) {
+			if ((displayMode & OVERLAY_LAYERS[i]) != 0)
+				lists.put(OVERLAY_LAYERS[i], compileLayer(layout, index, OVERLAY_LAYERS[i]));
+		}
+		
+		//Hand-off (only if the view still shows the content the lists were compiled for)
+		return new Runnable() {
+			public void run() {
+				if (document != doc || document.getLayoutIndex() != index)
+					return;
+				docLayout = layout;
+				displayLists.putAll(lists);
 			}
+		};
+	}
+	
+	/**
+	 * Adds all objects of the given type to the display list (outlines and baselines
+	 * are referenced in the geometry store of the document)
+	 * @param type Content type (<code>null</code> for regions)
+	 */
+	private void compileObjects(DisplayList.Builder builder, PageLayoutIndex index, ContentType type) {
+		for (int i=0; i<index.getObjectCount(type); i++) {
+			Color color = getContentObjectColor(index.getObject(type, i));
 			
-			if (region.getCoords() != null) {
-				Polygon coords = region.getCoords();
-				DrawingHelper.drawPolygon(gc, getContentObjectColor(region), coords);
-			}
+			//Baseline (https://github.com/bertsky)
+			int baselineId = index.getBaselineId(type, i);
+			if (baselineId >= 0)
+				DrawingHelper.drawMultiline(builder, color, baselineId);
+			
+			int coordsId = index.getCoordsId(type, i);
+			if (coordsId >= 0)
+				DrawingHelper.drawPolygon(builder, color, coordsId);
 		}
+	}
+	
+	/**
+	 * Compiles all regions
+	 */
+	private void compileRegions(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(1);
+		compileObjects(builder, index, null);
+	}
+	
+	/**
+	 * Compiles all text lines
+	 */
+	private void compileTextlines(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(1);
+		compileObjects(builder, index, LowLevelTextType.TextLine);
 
 		/*for (int i=0; i<docLayout.getRegionCount(); i++) {
 			Region region = docLayout.getRegion(i);
@@ -335,17 +545,11 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	}
 
 	/**
-	 * Draws all words
+	 * Compiles all words
 	 */
-	private void drawWords(GC gc) {
-		gc.setLineWidth(1);
-		for (ContentIterator it = docLayout.iterator(LowLevelTextType.Word); it.hasNext(); ) {
-			ContentObject region = it.next();
-			if (region.getCoords() != null) {
-				Polygon coords = region.getCoords();
-				DrawingHelper.drawPolygon(gc, getContentObjectColor(region), coords);
-			}
-		}
+	private void compileWords(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(1);
+		compileObjects(builder, index, LowLevelTextType.Word);
 
 		/*for (int i=0; i<docLayout.getRegionCount(); i++) {
 			Region region = docLayout.getRegion(i);
@@ -370,17 +574,11 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	}
 	
 	/**
-	 * Draws all glyphs
+	 * Compiles all glyphs
 	 */
-	private void drawGlyphs(GC gc) {
-		gc.setLineWidth(1);
-		for (ContentIterator it = docLayout.iterator(LowLevelTextType.Glyph); it.hasNext(); ) {
-			ContentObject region = it.next();
-			if (region.getCoords() != null) {
-				Polygon coords = region.getCoords();
-				DrawingHelper.drawPolygon(gc, getContentObjectColor(region), coords);
-			}
-		}
+	private void compileGlyphs(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(1);
+		compileObjects(builder, index, LowLevelTextType.Glyph);
 
 		/*for (int i=0; i<docLayout.getRegionCount(); i++) {
 			Region region = docLayout.getRegion(i);
@@ -412,46 +610,45 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 
 
 	/**
-	 * Draws the page border
+	 * Compiles the page border
 	 */
-	private void drawBorder(GC gc) {
-		gc.setLineWidth(2);
-		if (docLayout.getBorder() != null) {
-			DrawingHelper.drawPolygon(gc, new Color(viewPane.getDisplay(), 255, 99, 71), docLayout.getBorder().getCoords());
+	private void compileBorder(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(2);
+		if (index.getBorderId() >= 0) {
+			DrawingHelper.drawPolygon(builder, colors.BorderColor, index.getBorderId());
 		}
 	}
 
 	/**
-	 * Draws the page print space
+	 * Compiles the page print space
 	 */
-	private void drawPrintSpace(GC gc) {
-		gc.setLineWidth(2);
-		if (docLayout.getPrintSpace() != null) {
-			DrawingHelper.drawPolygon(gc, new Color(viewPane.getDisplay(), 0, 100, 0), docLayout.getPrintSpace().getCoords());
+	private void compilePrintSpace(DisplayList.Builder builder, PageLayoutIndex index) {
+		builder.setLineWidth(2);
+		if (index.getPrintSpaceId() >= 0) {
+			DrawingHelper.drawPolygon(builder, colors.PrintSpaceColor, index.getPrintSpaceId());
 		}
 	}
 	
 	/**
-	 * Draws the text region reading order (arrows, etc.)
-	 * @param gc
+	 * Compiles the text region reading order (arrows, etc.)
 	 */
-	private void drawReadingOrder(GC gc) {
-		ReadingOrder readingOrder = docLayout.getReadingOrder();
+	private void compileReadingOrder(DisplayList.Builder builder, PageLayout layout, ReadingOrderGeometry geometry) {
+		ReadingOrder readingOrder = layout.getReadingOrder();
 
 		if (readingOrder == null || readingOrder.getRoot() == null || readingOrder.getRoot().getSize() == 0)
 			return;
 
-		gc.setAlpha(255);
-		gc.setLineWidth(3);
+		builder.setAlpha(255);
+		builder.setLineWidth(3);
 
 		//Connections
-		drawReadingOrderElement(gc, readingOrder.getRoot(), 0);
+		compileReadingOrderElement(builder, geometry, readingOrder.getRoot(), 0);
 	}
 
 	/**
-	 * Draws the given reading order element and all its child elements.
+	 * Compiles the given reading order element and all its child elements.
 	 */
-	private void drawReadingOrderElement(GC gc, GroupMember element, int level)
+	private void compileReadingOrderElement(DisplayList.Builder builder, ReadingOrderGeometry geometry, GroupMember element, int level)
 	{
 		if (element == null) //Should not happen
 			return;
@@ -462,7 +659,7 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 
 			//Draw children recursively
 			for (int i=0; i<group.getSize(); i++)
-				drawReadingOrderElement(gc, group.getMember(i), level+1);
+				compileReadingOrderElement(builder, geometry, group.getMember(i), level+1);
 
 			//Draw Group:
 			// Ordered Group (arrows from child to child)
@@ -480,60 +677,56 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 				for (int i=0; i<group.getSize(); i++) {
 					child2 = group.getMember(i);
 					if (child2 != null)	{
-						center2 = getReadingOrderEndPoint(child2);
+						center2 = geometry.getEndPoint(child2);
 						if (center2 == null) //happens for empty groups
 							continue;
 					}
 					if (child1 != null && center1 != null && center2 != null) {
 						//Draw arrow from centre of child 1 to centre of child 2
-						gc.setForeground(getReadingOrderGroupColor(level));
-						gc.setBackground(getReadingOrderGroupColor(level));
+						builder.setColor(getReadingOrderGroupColor(level));
 
-						DrawingHelper.drawArrow(gc, center1, center2, arrow);
+						DrawingHelper.drawArrow(builder, center1, center2, arrow);
 
 						//Dot
-						gc.setForeground(colors.ReadingOrderCenterColor);
-						gc.setBackground(colors.ReadingOrderCenterColor);
-						gc.fillOval(center2.x-4, center2.y-4, 9, 9);
+						builder.setColor(colors.ReadingOrderCenterColor);
+						builder.fillOval(center2.x-4, center2.y-4, 9, 9);
 					}
 					child1 = child2;
-					center1 = getReadingOrderStartPoint(child1);
+					center1 = geometry.getStartPoint(child1);
 				}
 			}
 			//Unordered Group (star - lines from the group centre to the child centres)
 			else { 
-				Point groupCenter = getReadingOrderStartPoint(group);
+				Point groupCenter = geometry.getStartPoint(group);
 				Point center2 = null;
 				if (groupCenter != null) {
-					gc.setForeground(getReadingOrderGroupColor(level));
-					gc.setBackground(getReadingOrderGroupColor(level));
+					builder.setColor(getReadingOrderGroupColor(level));
 
 					//'Star'
 					int x1, y1;
 					x1 = groupCenter.x;
 					y1 = groupCenter.y;
 					for (int i=0; i<group.getSize(); i++) {
-						center2 = getReadingOrderEndPoint(group.getMember(i));
+						center2 = geometry.getEndPoint(group.getMember(i));
 						if (center2 != null) {
-							gc.drawLine(x1,  y1,  center2.x, center2.y);
+							builder.drawLine(x1,  y1,  center2.x, center2.y);
 						}
 					}
 					//Circle
-					gc.setForeground(colors.ReadingOrderCenterColor);
-					gc.setBackground(colors.White);
-					gc.fillOval(x1-7, y1-7, 15, 15);
-					gc.drawOval(x1-7, y1-7, 15, 15);
+					builder.setColor(colors.White);
+					builder.fillOval(x1-7, y1-7, 15, 15);
+					builder.setColor(colors.ReadingOrderCenterColor);
+					builder.drawOval(x1-7, y1-7, 15, 15);
 				}
 			}
 		}
 		//RegionRef (just draw a dot)
 		else {
 			//Dot
-			Point center = getReadingOrderEndPoint(element);
+			Point center = geometry.getEndPoint(element);
 			if (center != null) {
-				gc.setForeground(colors.ReadingOrderCenterColor);
-				gc.setBackground(colors.ReadingOrderCenterColor);
-				gc.fillOval(center.x-4, center.y-4, 9, 9);
+				builder.setColor(colors.ReadingOrderCenterColor);
+				builder.fillOval(center.x-4, center.y-4, 9, 9);
 			}
 		}
 	}
@@ -550,113 +743,6 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 		}
 	}
 	
-	/**
-	 * Returns the centre of the specified reading order element.
-	 * For a RegionRef element this is simply the centre of the region.
-	 * For groups it is the centre of all child centres.
-	 */
-	Point getReadingOrderStartPoint(GroupMember element) {
-		if (element == null)
-			return null;
-
-		Point ret = new Point();
-
-		//RegionRef
-		if (element instanceof RegionRef) {
-			Region region = docLayout.getRegion(((RegionRef)element).getRegionId(), true);
-			if (region != null)	{
-				return region.getCoords().getBoundingBox().getCenter();
-			}
-		}
-		//Group 
-		else if (element instanceof Group) {
-			Group group = (Group)element;
-			if (group.getSize() == 0) { //No centre available -> skip the group
-				return null;
-			}
-			if (group.isOrdered()) //ordered -> start point = centre of last child
-			{
-				for (int i=group.getSize()-1; i>=0; i--) {
-					ret = getReadingOrderEndPoint(group.getMember(i));
-					if (ret != null)
-						return ret;
-				}
-			}
-			else { //unordered -> start point = average of all child centres
-				int x = 0, y = 0, count = 0;
-				for (int i=0; i<group.getSize(); i++) {
-					Point childCenter = getReadingOrderEndPoint(group.getMember(i));
-					if (childCenter != null) {
-						x += childCenter.x;
-						y += childCenter.y;
-						count++;
-					}
-				}	
-				if (x == 0 && y == 0 || count == 0) //No centre available
-					return null;
-				x /= count;
-				y /= count;
-				ret.x = x;
-				ret.y = y;
-			}
-		}
-		return ret;		
-	}
-
-	
-	/**
-	 * Returns the centre of the specified reading order element.
-	 * For a RegionRef element this is simply the centre of the region.
-	 * For groups it is the centre of all child centres.
-	 */
-	Point getReadingOrderEndPoint(GroupMember element) {
-		if (element == null)
-			return null;
-
-		Point ret = new Point();
-
-		//RegionRef (centre = centre of bounding box)
-		if (element instanceof RegionRef) {
-			Region region = (Region)docLayout.getRegion(((RegionRef)element).getRegionId(), true);
-			if (region != null)	
-				ret = region.getCoords().getBoundingBox().getCenter();
-		}
-		//Group 
-		else if (element instanceof Group) {
-			Group group = (Group)element;
-			if (group.getSize() == 0) { //No centre available -> skip the group
-				return null;
-			}
-			if (group.isOrdered()) //ordered -> end point = centre of first child
-			{
-				for (int i=0; i<group.getSize(); i++) {
-					ret = getReadingOrderEndPoint(group.getMember(i));
-					if (ret != null)
-						return ret;
-				}
-			}
-			else { //unordered (centre = average of all child centres)
-				int x = 0, y = 0, count = 0;
-				for (int i=0; i<group.getSize(); i++) {
-					Point childCenter = getReadingOrderEndPoint(group.getMember(i));
-					if (childCenter != null) {
-						x += childCenter.x;
-						y += childCenter.y;
-						count++;
-					}
-				}	
-				if (x == 0 && y == 0 || count == 0) { //No centre available
-					return null;
-				}
-				x /= count;
-				y /= count;
-				ret.x = x;
-				ret.y = y;
-			}
-		}
-		return ret;
-	}
-	
 	/**
 	 * Returns the outline and fill colour that corresponds to the object type 
 	 */
@@ -708,7 +794,7 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 
 	@Override
 	public void mouseHover(MouseEvent e) {
-		if (docLayout == null)
+		if (docLayout == null || document == null || document.getLayoutIndex() == null)
 			return;
 		
 		//Calculate the position in document page coordinates
@@ -726,15 +812,16 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 			|| (displayMode & DISPLAYMODE_WORD) != 0
 			|| (displayMode & DISPLAYMODE_GLYPH) != 0
 			) {
+			PageLayoutIndex index = document.getLayoutIndex();
 			ContentObject obj = null;
 			if ((displayMode & DISPLAYMODE_GLYPH) != 0)
-				obj = docLayout.getObjectAt(p.x, p.y, LowLevelTextType.Glyph);
+				obj = index.getObjectAt(LowLevelTextType.Glyph, p.x, p.y);
 			if (obj == null && (displayMode & DISPLAYMODE_WORD) != 0)
-				obj = docLayout.getObjectAt(p.x, p.y, LowLevelTextType.Word);
+				obj = index.getObjectAt(LowLevelTextType.Word, p.x, p.y);
 			if (obj == null && (displayMode & DISPLAYMODE_TEXTLINE) != 0)
-				obj = docLayout.getObjectAt(p.x, p.y, LowLevelTextType.TextLine);
+				obj = index.getObjectAt(LowLevelTextType.TextLine, p.x, p.y);
 			if (obj == null && (displayMode & DISPLAYMODE_REGION) != 0)
-				obj = docLayout.getRegionAt(p.x, p.y);
+				obj = index.getObjectAt(null, p.x, p.y);
 				
 			//Show/hide tooltip
 			if (obj != null) 
@@ -752,6 +839,7 @@ public class DocumentImageView extends DocumentView implements DocumentListener,
 	@Override
 	public void mouseScrolled(MouseEvent e) {
 		if ((e.stateMask & SWT.MOD1) != 0) { //CTRL
+			imageCanvas.notifyInteraction();
 			if (e.count > 0)
 				zoomIn();
 			else
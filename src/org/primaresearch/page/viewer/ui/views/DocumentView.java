@@ -16,8 +16,10 @@
 package org.primaresearch.page.viewer.ui.views;
 
 import org.eclipse.swt.widgets.Composite;
+import org.primaresearch.dla.page.layout.PageLayout;
 import org.primaresearch.page.viewer.PageViewer;
 import org.primaresearch.page.viewer.Document;
+import org.primaresearch.page.viewer.dla.PageLayoutIndex;
 
 
 /**
@@ -87,4 +89,18 @@ public abstract class DocumentView {
 	 * Refreshes this view
 	 */
 	public abstract void refresh();
+	
+	/**
+	 * Prepares render data for the given page content. Called from a worker thread,
+	 * so implementations must not access any widgets.
+	 * @param doc Document the page content belongs to
+	 * @param layout Post-processed page layout that will be set for the document
+	 * @param index Layout index that will be set for the document
+	 * @param displayMode Display mode the view will be switched to
+	 * @return Hand-off that installs the prepared data (to be run on the UI thread after the page and index have been set) 
+	 * 			or <code>null</code> if there is nothing to install
+	 */
+	public Runnable prepare(Document doc, PageLayout layout, PageLayoutIndex index, int displayMode) {
+		return null;
+	}
 }
@@ -30,6 +30,8 @@ import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.ScrollBar;
+import org.primaresearch.page.viewer.extra.Timings;
+import org.primaresearch.page.viewer.extra.jfr.CanvasPaintEvent;
 
 /**
  * A scrollable image canvas that extends org.eclipse.swt.graphics.Canvas.
@@ -47,11 +49,41 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	/* zooming rates in x and y direction are equal.*/
 	final float ZOOMIN_RATE = 1.1f; /* zoomin rate */
 	final float ZOOMOUT_RATE = 0.9f; /* zoomout rate */
+	final int FRAME_INTERVAL = 16; /* minimum time between two paints in ms (about 60 frames per second) */
+	final int IDLE_DELAY = 250; /* time without input in ms after which a full quality paint follows */
 	private Image sourceImage; /* original image */
-	private Image screenImage; /* screen image */
+	private boolean sourceImageOwned = true; /* dispose the source image when it is replaced? */
+	private Rectangle sourceBounds; /* size of the source (also without source image, if drawn by the source painter) */
+	private Image screenImage; /* screen image (back buffer, reallocated only if the canvas size changes) */
+	private boolean bufferValid = false; /* back buffer content up to date (apart from scrolling)? */
+	private AffineTransform bufferTransform = new AffineTransform(); /* transform used for the back buffer content */
+	private int lastPaintAllocations = 0; /* native resources allocated during the last paint */
+	private long totalAllocations = 0; /* native resources allocated by all paints */
+	private boolean frameScheduled = false; /* paint requested but not yet issued? */
+	private long lastFrameTime = 0; /* time of the last issued paint (ns) */
+	private long requestedFrames = 0; /* number of paint requests (scheduled redraws) */
+	private long paintedFrames = 0; /* number of paints */
+	private boolean interactive = false; /* user is zooming or panning (draft quality)? */
+	private final Runnable idleRunnable = new Runnable() { /* ends the interactive mode */
+		public void run() {
+			interactive = false;
+			if (!isDisposed())
+				scheduleRedraw();
+		}
+	};
+	private final Runnable frameRunnable = new Runnable() { /* issues a scheduled paint */
+		public void run() {
+			frameScheduled = false;
+			if (!isDisposed()) {
+				lastFrameTime = System.nanoTime();
+				SWTImageCanvas.super.redraw();
+			}
+		}
+	};
 	private AffineTransform transform = new AffineTransform();
 	private Point mouseReferencePoint = null;
 	private Color grey;
+	private SourcePainter sourcePainter = null; /* optional painter replacing the plain source image */
 
 	private String currentDir=""; /* remembering file open directory */
 
@@ -87,9 +119,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Dispose the garbage here
 	 */
 	public void dispose() {
-		if (sourceImage != null && !sourceImage.isDisposed()) {
-			sourceImage.dispose();
-		}
+		disposeSourceImage();
 		if (screenImage != null && !screenImage.isDisposed()) {
 			screenImage.dispose();
 		}
@@ -100,33 +130,115 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	/* Paint function */
 	private void paint(GC gc) {
 		Rectangle clientRect = getClientArea(); /* Canvas' painting area */
-		if (sourceImage != null) {
-			Rectangle imageRect =
-				SWT2Dutil.inverseTransformRect(transform, clientRect);
-			int gap = 2; /* find a better start point to render */
-			imageRect.x -= gap; imageRect.y -= gap;
-			imageRect.width += 2 * gap; imageRect.height += 2 * gap;
-
-			Rectangle imageBound = sourceImage.getBounds();
-			imageRect = imageRect.intersection(imageBound);
-			Rectangle destRect = SWT2Dutil.transformRect(transform, imageRect);
-
-			if (screenImage != null)
-				screenImage.dispose();
-			screenImage =
-				new Image(getDisplay(), clientRect.width, clientRect.height);
+		if (sourceBounds != null) {
+			long start = Timings.start();
+			CanvasPaintEvent event = new CanvasPaintEvent();
+			event.begin();
+			int allocations = 0;
+			int bufferWidth = Math.max(1, clientRect.width);
+			int bufferHeight = Math.max(1, clientRect.height);
+			if (screenImage == null || screenImage.isDisposed()
+					|| screenImage.getBounds().width != bufferWidth
+					|| screenImage.getBounds().height != bufferHeight) {
+				if (screenImage != null)
+					screenImage.dispose();
+				screenImage = new Image(getDisplay(), bufferWidth, bufferHeight);
+				allocations++;
+				bufferValid = false;
+			}
 			GC newGC = new GC(screenImage);
-			newGC.setClipping(clientRect);
+			allocations++;
+			newGC.setInterpolation(interactive ? SWT.NONE : SWT.DEFAULT);
+			newGC.setAntialias(interactive ? SWT.OFF : SWT.DEFAULT);
 			
-			//Background
-			newGC.setBackground(grey);
-			newGC.fillRectangle(0, 0, destRect.x, clientRect.height);
-			newGC.fillRectangle(clientRect.width-destRect.x, 0, destRect.x, clientRect.height);
-			newGC.fillRectangle(0, 0, clientRect.width, destRect.y);
-			newGC.fillRectangle(0, clientRect.height-destRect.y, clientRect.width, destRect.y);
+			//Only scrolled since the last paint? -> shift the buffer content and render the exposed strips
+			double dx = transform.getTranslateX() - bufferTransform.getTranslateX();
+			double dy = transform.getTranslateY() - bufferTransform.getTranslateY();
+			int scrollX = (int)Math.round(dx);
+			int scrollY = (int)Math.round(dy);
+			if (bufferValid 
+					&& transform.getScaleX() == bufferTransform.getScaleX()
+					&& transform.getScaleY() == bufferTransform.getScaleY()
+					&& Math.abs(dx - scrollX) < 0.001 && Math.abs(dy - scrollY) < 0.001
+					&& Math.abs(scrollX) < clientRect.width && Math.abs(scrollY) < clientRect.height) {
+				if (scrollX != 0 || scrollY != 0) {
+					newGC.copyArea(0, 0, clientRect.width, clientRect.height, scrollX, scrollY);
+					if (scrollX > 0)
+						allocations += render(newGC, clientRect, new Rectangle(0, 0, scrollX, clientRect.height));
+					else if (scrollX < 0)
+						allocations += render(newGC, clientRect, new Rectangle(clientRect.width + scrollX, 0, -scrollX, clientRect.height));
+					if (scrollY > 0)
+						allocations += render(newGC, clientRect, new Rectangle(0, 0, clientRect.width, scrollY));
+					else if (scrollY < 0)
+						allocations += render(newGC, clientRect, new Rectangle(0, clientRect.height + scrollY, clientRect.width, -scrollY));
+				}
+			}
+			else //Render everything
+				allocations += render(newGC, clientRect, clientRect);
+			newGC.dispose();
+			bufferTransform = new AffineTransform(transform);
+			bufferValid = true;
+
+			gc.drawImage(screenImage, 0, 0);
 			
-			//Document image
-			newGC.drawImage(
+			paintedFrames++;
+			lastPaintAllocations = allocations;
+			totalAllocations += allocations;
+			Timings.stop(Timings.PAINT, start);
+			if (event.shouldCommit()) {
+				event.width = clientRect.width;
+				event.height = clientRect.height;
+				event.interactive = interactive;
+				event.allocations = allocations;
+				event.bufferSize = 4L * bufferWidth * bufferHeight;
+				event.commit();
+			}
+		} else {
+			gc.setClipping(clientRect);
+			gc.fillRectangle(clientRect);
+			initScrollBars();
+		}
+	}
+	
+	/**
+	 * Renders the given part of the canvas into the back buffer
+	 * @param gc Graphics context of the back buffer
+	 * @param clientRect Canvas' painting area
+	 * @param area Area to render (screen coordinates)
+	 * @return Number of native resources allocated while rendering
+	 */
+	private int render(GC gc, Rectangle clientRect, Rectangle area) {
+		Rectangle imageRect =
+			SWT2Dutil.inverseTransformRect(transform, area);
+		int gap = 2; /* find a better start point to render */
+		imageRect.x -= gap; imageRect.y -= gap;
+		imageRect.width += 2 * gap; imageRect.height += 2 * gap;
+
+		Rectangle imageBound = sourceBounds;
+		imageRect = imageRect.intersection(imageBound);
+		Rectangle destRect = SWT2Dutil.transformRect(transform, imageRect);
+		
+		gc.setClipping(area);
+		
+		//Background (the back buffer is reused, so everything around the image has to be cleared)
+		gc.setBackground(grey);
+		int destRight = destRect.x + destRect.width;
+		int destBottom = destRect.y + destRect.height;
+		if (imageRect.isEmpty())
+			gc.fillRectangle(area);
+		else {
+			gc.fillRectangle(0, 0, destRect.x, clientRect.height);
+			gc.fillRectangle(destRight, 0, clientRect.width - destRight, clientRect.height);
+			gc.fillRectangle(0, 0, clientRect.width, destRect.y);
+			gc.fillRectangle(0, destBottom, clientRect.width, clientRect.height - destBottom);
+		}
+		
+		//Document image
+		int allocations = 0;
+		if (sourcePainter != null)
+			allocations += sourcePainter.paintSource(gc, imageRect, transform, interactive);
+		else if (sourceImage != null && !imageRect.isEmpty())
+			gc.drawImage(
 				sourceImage,
 				imageRect.x,
 				imageRect.y,
@@ -136,14 +248,85 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 				destRect.y,
 				destRect.width,
 				destRect.height);
-			newGC.dispose();
-
-			gc.drawImage(screenImage, 0, 0);
-		} else {
-			gc.setClipping(clientRect);
-			gc.fillRectangle(clientRect);
-			initScrollBars();
-		}
+		return allocations;
+	}
+	
+	/**
+	 * Marks the whole canvas as to be rendered again and paints it with the next
+	 * event loop pass (as {@link Canvas#redraw()}; see also {@link #scheduleRedraw()})
+	 */
+	@Override
+	public void redraw() {
+		bufferValid = false;
+		super.redraw();
+	}
+	
+	/**
+	 * Marks the whole canvas as to be rendered again and schedules a paint for the next frame.
+	 * Unlike {@link #redraw()}, repeated requests within a frame interval result in a single paint.
+	 */
+	public void scheduleRedraw() {
+		bufferValid = false;
+		scheduleFrame();
+	}
+	
+	/**
+	 * Schedules a paint without discarding the back buffer (if only the
+	 * position of the image has changed, the buffer content is shifted
+	 * and only the newly exposed areas are rendered)
+	 */
+	private void redrawScrolled() {
+		scheduleFrame();
+	}
+	
+	/**
+	 * Schedules a paint for the next frame. Requests arriving before the frame is due
+	 * (e.g. a burst of mouse move or wheel events) are merged, since the paint always
+	 * uses the latest transform. At most one paint is issued per frame interval.
+	 */
+	private void scheduleFrame() {
+		requestedFrames++;
+		if (frameScheduled || isDisposed())
+			return;
+		frameScheduled = true;
+		long elapsed = (System.nanoTime() - lastFrameTime) / 1000000L;
+		if (elapsed >= FRAME_INTERVAL)
+			getDisplay().asyncExec(frameRunnable);
+		else
+			getDisplay().timerExec((int)(FRAME_INTERVAL - elapsed), frameRunnable);
+	}
+	
+	/**
+	 * Notifies the canvas that the user is zooming or panning.
+	 * Paints are done in draft quality (no interpolation or antialiasing) until there
+	 * has been no input for a short time, after which a full quality paint follows.
+	 */
+	public void notifyInteraction() {
+		if (isDisposed())
+			return;
+		interactive = true;
+		getDisplay().timerExec(IDLE_DELAY, idleRunnable); //(Re)starts the idle timer
+	}
+	
+	/**
+	 * Returns <code>true</code> if the user is currently zooming or panning
+	 */
+	public boolean isInteractive() {
+		return interactive;
+	}
+	
+	/**
+	 * Returns the number of paint requests (see {@link #scheduleRedraw()}) so far
+	 */
+	public long getRequestedFrameCount() {
+		return requestedFrames;
+	}
+	
+	/**
+	 * Returns the number of paints so far (requests are merged, see {@link #getRequestedFrameCount()})
+	 */
+	public long getPaintedFrameCount() {
+		return paintedFrames;
 	}
 
 	/* Initalize the scrollbar and register listeners. */
@@ -166,8 +349,9 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 
 	/* Scroll horizontally */
 	private void scrollHorizontally(ScrollBar scrollBar) {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
+		notifyInteraction();
 
 		AffineTransform af = transform;
 		double tx = af.getTranslateX();
@@ -179,8 +363,9 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 
 	/* Scroll vertically */
 	private void scrollVertically(ScrollBar scrollBar) {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
+		notifyInteraction();
 
 		AffineTransform af = transform;
 		double ty = af.getTranslateY();
@@ -204,8 +389,8 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * factors :<b> transform, image size, client area</b>.
 	 */
 	public void syncScrollBars() {
-		if (sourceImage == null) {
-			redraw();
+		if (sourceBounds == null) {
+			scheduleRedraw();
 			return;
 		}
 
@@ -218,7 +403,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 		ScrollBar horizontal = getHorizontalBar();
 		horizontal.setIncrement((int) (getClientArea().width / 100));
 		horizontal.setPageIncrement(getClientArea().width);
-		Rectangle imageBound = sourceImage.getBounds();
+		Rectangle imageBound = sourceBounds;
 		int cw = getClientArea().width, ch = getClientArea().height;
 		if (imageBound.width * sx > cw) { /* image is wider than client area */
 			horizontal.setMaximum((int) (imageBound.width * sx));
@@ -252,7 +437,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 		af.preConcatenate(AffineTransform.getTranslateInstance(tx, ty));
 		transform = af;
 
-		redraw();
+		redrawScrolled();
 	}
 
 	/**
@@ -261,11 +446,11 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * @return swt image created from image file
 	 */
 	public Image loadImage(String filename) {
-		if (sourceImage != null && !sourceImage.isDisposed()) {
-			sourceImage.dispose();
-			sourceImage = null;
-		}
+		disposeSourceImage();
 		sourceImage = new Image(getDisplay(), filename);
+		sourceImageOwned = true;
+		sourceBounds = sourceImage.getBounds();
+		bufferValid = false;
 		showOriginal();
 		return sourceImage;
 	}
@@ -295,17 +480,81 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	
 	public void setSourceImage(Image image, boolean resetZoomAndScrollbars)
 	{
-		if (sourceImage != null && !sourceImage.isDisposed()) {
-			sourceImage.dispose();
-			sourceImage = null;
-		}
+		setSourceImage(image, resetZoomAndScrollbars, true);
+	}
+	
+	/**
+	 * Sets the source image
+	 * @param image New source image
+	 * @param resetZoomAndScrollbars Show the image in original size?
+	 * @param owned <code>true</code> if the canvas takes over the image (disposed when replaced);
+	 * 			<code>false</code> if the image is shared and disposed by its owner
+	 */
+	public void setSourceImage(Image image, boolean resetZoomAndScrollbars, boolean owned)
+	{
+		disposeSourceImage();
 		sourceImage = image; 
+		sourceImageOwned = owned;
+		sourceBounds = image != null ? image.getBounds() : null;
+		bufferValid = false;
+		if (resetZoomAndScrollbars)
+			showOriginal();
+		else
+			syncScrollBars();
+	}
+
+	/**
+	 * Disposes the source image if it is owned by the canvas and forgets it
+	 */
+	private void disposeSourceImage() {
+		if (sourceImage != null && sourceImageOwned && !sourceImage.isDisposed())
+			sourceImage.dispose();
+		sourceImage = null;
+		sourceBounds = null;
+	}
+
+	/**
+	 * Sets the size of a source that has no source image and is drawn entirely by the source painter
+	 * (see {@link #setSourcePainter(SourcePainter)}), e.g. a page image that is converted tile by tile.
+	 * @param width Source width
+	 * @param height Source height
+	 * @param resetZoomAndScrollbars Show the source in original size?
+	 */
+	public void setSourceSize(int width, int height, boolean resetZoomAndScrollbars) {
+		disposeSourceImage();
+		sourceBounds = new Rectangle(0, 0, width, height);
+		bufferValid = false;
 		if (resetZoomAndScrollbars)
 			showOriginal();
 		else
 			syncScrollBars();
 	}
 
+	/**
+	 * Sets a painter that renders the visible part of the source image
+	 * (e.g. tile-based with overlay). The source image is still used for the bounds.
+	 * @param painter Painter or <code>null</code> to draw the source image directly
+	 */
+	public void setSourcePainter(SourcePainter painter) {
+		sourcePainter = painter;
+		scheduleRedraw();
+	}
+
+	/**
+	 * Returns the number of native resources (images, graphics contexts, ...) that
+	 * were allocated during the last paint (0 or 1 if nothing needed to be rendered).
+	 */
+	public int getLastPaintAllocationCount() {
+		return lastPaintAllocations;
+	}
+
+	/**
+	 * Returns the number of native resources allocated by all paints so far.
+	 */
+	public long getTotalAllocationCount() {
+		return totalAllocations;
+	}
+
 	/**
 	 * Get the image data. (for future use only)
 	 * @return image data of canvas
@@ -319,10 +568,13 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * @param data image data to be set
 	 */
 	public void setImageData(ImageData data) {
-		if (sourceImage != null)
-			sourceImage.dispose();
-		if (data != null)
+		disposeSourceImage();
+		if (data != null) {
 			sourceImage = new Image(getDisplay(), data);
+			sourceImageOwned = true;
+			sourceBounds = sourceImage.getBounds();
+		}
+		bufferValid = false;
 		syncScrollBars();
 	}
 
@@ -330,9 +582,9 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Fit the image onto the canvas
 	 */
 	public void fitCanvas() {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
-		Rectangle imageBound = sourceImage.getBounds();
+		Rectangle imageBound = sourceBounds;
 		Rectangle destRect = getClientArea();
 		double sx = (double) destRect.width / (double) imageBound.width;
 		double sy = (double) destRect.height / (double) imageBound.height;
@@ -346,7 +598,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Show the image with the original size
 	 */
 	public void showOriginal() {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
 		transform = new AffineTransform();
 		syncScrollBars();
@@ -377,7 +629,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Zoom in around the center of client Area.
 	 */
 	public void zoomIn() {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
 		Rectangle rect = getClientArea();
 		int w = rect.width, h = rect.height;
@@ -390,7 +642,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Zoom out around the center of client Area.
 	 */
 	public void zoomOut() {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
 		Rectangle rect = getClientArea();
 		int w = rect.width, h = rect.height;
@@ -403,7 +655,7 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 	 * Reset zoom and centre.
 	 */
 	public void resetZoom() {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
 		Rectangle rect = getClientArea();
 		int w = rect.width, h = rect.height;
@@ -444,11 +696,12 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 
 	@Override
 	public void mouseMove(MouseEvent e) {
-		if (sourceImage == null)
+		if (sourceBounds == null)
 			return;
 		Point p = mouseReferencePoint;
 		if (p != null) {
 			//Scroll
+			notifyInteraction();
 			AffineTransform af = transform;
 			double dx = e.x-mouseReferencePoint.x;
 			double dy = e.y-mouseReferencePoint.y;
@@ -461,5 +714,18 @@ public class SWTImageCanvas extends Canvas implements MouseWheelListener, MouseL
 		
 	}
 
-
+	/**
+	 * Interface for custom rendering of the source image
+	 */
+	public static interface SourcePainter {
+		/**
+		 * Paints the given part of the source image
+		 * @param gc Target graphics context (screen coordinates)
+		 * @param imageRect Visible part of the source image (image coordinates)
+		 * @param transform Transformation from image to screen coordinates
+		 * @param interactive The user is zooming or panning (draft quality is sufficient)
+		 * @return Number of native resources (images, graphics contexts, ...) allocated while painting
+		 */
+		public int paintSource(GC gc, Rectangle imageRect, AffineTransform transform, boolean interactive);
+	}
 }